@@ -0,0 +1,184 @@
+package com.ctn.Villager;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// 捕获/释放的准入控制：玩家、区域、全局三级令牌桶，三级都有令牌才放行。
+// 令牌补充速率按交互所在区域的平均 tick 耗时缩放，区域越卡补充越慢，超载时直接拒绝，
+// 这样在调度任何实体或位置任务之前就把连点挡在外面
+public class AdmissionController {
+
+    public enum Decision { ADMIT, THROTTLED, BUSY }
+
+    // 与分片缓存相同的 32x32 区块条带，近似一个 Folia 区域
+    private static final int REGION_SHIFT = 5;
+    private static final long IDLE_MILLIS = 60_000L;
+
+    private static final class Bucket {
+        private double tokens;
+        private long lastRefill;
+        private volatile long lastUsed;
+        private volatile double lastMspt;
+
+        Bucket(double burst, long now) {
+            this.tokens = burst;
+            this.lastRefill = now;
+            this.lastUsed = now;
+        }
+
+        synchronized boolean tryTake(long now, double ratePerSecond, double burst) {
+            if (now > lastRefill) {
+                tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerSecond / 1000.0);
+                lastRefill = now;
+            }
+            lastUsed = now;
+            if (tokens < 1.0) return false;
+            tokens -= 1.0;
+            return true;
+        }
+
+        synchronized void refund(double burst) {
+            tokens = Math.min(burst, tokens + 1.0);
+        }
+    }
+
+    // 准入配置快照：启用和重载时从配置读取一次，整体替换，交互路径上不再读配置
+    private static final class Settings {
+        final boolean enabled;
+        final double playerRate, playerBurst;
+        final double regionRate, regionBurst;
+        final double globalRate, globalBurst;
+        final double healthyMspt, overloadedMspt, minScale;
+
+        Settings(FileConfiguration cfg) {
+            enabled = cfg.getBoolean("settings.admission.enabled", true);
+            playerRate = cfg.getDouble("settings.admission.player.rate", 2.0);
+            playerBurst = cfg.getDouble("settings.admission.player.burst", 4.0);
+            regionRate = cfg.getDouble("settings.admission.region.rate", 10.0);
+            regionBurst = cfg.getDouble("settings.admission.region.burst", 20.0);
+            globalRate = cfg.getDouble("settings.admission.global.rate", 40.0);
+            globalBurst = cfg.getDouble("settings.admission.global.burst", 80.0);
+            healthyMspt = cfg.getDouble("settings.admission.healthy-mspt", 40.0);
+            overloadedMspt = cfg.getDouble("settings.admission.overloaded-mspt", 60.0);
+            minScale = cfg.getDouble("settings.admission.min-scale", 0.1);
+        }
+    }
+
+    private final VillagerBucketPlugin plugin;
+    private volatile Settings settings;
+    private final Map<UUID, Bucket> players = new ConcurrentHashMap<>();
+    private final Map<Long, Bucket> regions = new ConcurrentHashMap<>();
+    private final Bucket global;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+
+    public AdmissionController(VillagerBucketPlugin plugin) {
+        this.plugin = plugin;
+        this.settings = new Settings(plugin.getConfig());
+        this.global = new Bucket(settings.globalBurst, System.currentTimeMillis());
+        // 长时间未使用的桶早已回满，直接丢弃
+        plugin.getScheduler().runAsyncTimer(this::pruneIdle, 1200L, 1200L);
+    }
+
+    // 配置重载后调用；已有令牌桶在下次取令牌时按新的容量截断
+    public void reload() {
+        this.settings = new Settings(plugin.getConfig());
+    }
+
+    // 必须在交互所在区域的线程上调用，tick 耗时取的是当前区域的统计
+    public Decision tryAdmit(Player player, Location loc) {
+        final Settings cfg = settings;
+        if (!cfg.enabled) return Decision.ADMIT;
+
+        long now = System.currentTimeMillis();
+        double mspt = currentMspt();
+        double scale = scaleFor(mspt, cfg);
+        if (scale <= 0.0) {
+            busy.increment();
+            return Decision.BUSY;
+        }
+
+        double playerBurst = cfg.playerBurst;
+        double regionBurst = cfg.regionBurst;
+        double globalBurst = cfg.globalBurst;
+
+        Bucket p = players.computeIfAbsent(player.getUniqueId(), id -> new Bucket(playerBurst, now));
+        if (!p.tryTake(now, cfg.playerRate * scale, playerBurst)) {
+            throttled.increment();
+            return Decision.THROTTLED;
+        }
+
+        Bucket r = regions.computeIfAbsent(regionKey(loc), k -> new Bucket(regionBurst, now));
+        r.lastMspt = mspt;
+        if (!r.tryTake(now, cfg.regionRate * scale, regionBurst)) {
+            p.refund(playerBurst);
+            busy.increment();
+            return Decision.BUSY;
+        }
+
+        if (!global.tryTake(now, cfg.globalRate * scale, globalBurst)) {
+            p.refund(playerBurst);
+            r.refund(regionBurst);
+            busy.increment();
+            return Decision.BUSY;
+        }
+
+        admitted.increment();
+        return Decision.ADMIT;
+    }
+
+    // healthy-mspt 以下全速，overloaded-mspt 及以上拒绝，中间线性降到 min-scale
+    private static double scaleFor(double mspt, Settings cfg) {
+        double healthy = cfg.healthyMspt;
+        double overloaded = cfg.overloadedMspt;
+        if (mspt <= healthy) return 1.0;
+        if (mspt >= overloaded) return 0.0;
+        double min = cfg.minScale;
+        double t = (mspt - healthy) / Math.max(1e-6, overloaded - healthy);
+        return 1.0 - t * (1.0 - min);
+    }
+
+    // Folia 上在区域线程调用时返回该区域的统计；非 Paper 核心没有该方法时视为健康
+    private static double currentMspt() {
+        try {
+            return Bukkit.getAverageTickTime();
+        } catch (Throwable t) {
+            return 0.0;
+        }
+    }
+
+    private static long regionKey(Location loc) {
+        UUID world = loc.getWorld().getUID();
+        long w = world.getMostSignificantBits() ^ world.getLeastSignificantBits();
+        int rx = (loc.getBlockX() >> 4) >> REGION_SHIFT;
+        int rz = (loc.getBlockZ() >> 4) >> REGION_SHIFT;
+        return (w * 31 + rx) * 31 + rz;
+    }
+
+    private void pruneIdle() {
+        long cutoff = System.currentTimeMillis() - IDLE_MILLIS;
+        players.values().removeIf(b -> b.lastUsed < cutoff);
+        regions.values().removeIf(b -> b.lastUsed < cutoff);
+    }
+
+    public void cleanup() {
+        players.clear();
+        regions.clear();
+    }
+
+    public String describe() {
+        double worst = 0.0;
+        for (Bucket b : regions.values()) worst = Math.max(worst, b.lastMspt);
+        return String.format("准入控制: 放行 %d, 玩家限流 %d, 区域/全局繁忙 %d, 活跃玩家 %d, 活跃区域 %d (最高 %.1f ms/tick)",
+                admitted.sum(), throttled.sum(), busy.sum(), players.size(), regions.size(), worst);
+    }
+}
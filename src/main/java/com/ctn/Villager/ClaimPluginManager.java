@@ -1,6 +1,7 @@
 package com.ctn.Villager;
 
 import com.ctn.Villager.scheduler.IScheduler;
+import com.ctn.Villager.scheduler.TaskHandle;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
@@ -31,7 +32,7 @@ public class ClaimPluginManager implements Listener {
     private volatile Method checkPrivilegeFlagSilence;
     private volatile Method flagsGetPreFlag;
 
-    private String retryTaskId = null;               // 任务 ID 使用 String
+    private TaskHandle retryTask = null;
     private int retryCount = 0;
     private final int maxRetries = 60;
     private final long retryPeriodTicks = 100L;
@@ -86,9 +87,8 @@ public class ClaimPluginManager implements Listener {
     }
 
     private void startDominionInitRetry() {
-        if (retryTaskId != null) return;
-        // 使用全局定时任务，返回 String ID
-        retryTaskId = scheduler.runGlobalTimer(() -> {
+        if (retryTask != null) return;
+        retryTask = scheduler.runGlobalTimer(() -> {
             retryCount++;
             if (tryInitDominion()) {
                 dominionReady.set(true);
@@ -107,9 +107,9 @@ public class ClaimPluginManager implements Listener {
     }
 
     private void stopRetry() {
-        if (retryTaskId != null) {
-            scheduler.cancelTask(retryTaskId);
-            retryTaskId = null;
+        if (retryTask != null) {
+            retryTask.cancel();
+            retryTask = null;
         }
     }
 
@@ -1,8 +1,10 @@
 package com.ctn.Villager;
 
+import com.ctn.Villager.codec.RegistrySymbols;
 import com.ctn.Villager.command.VillagerBucketCommand;
 import com.ctn.Villager.scheduler.IScheduler;
 import com.ctn.Villager.scheduler.SchedulerManager;
+import com.ctn.Villager.scheduler.TimingWheel;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.PluginCommand;
@@ -20,7 +22,9 @@ public class VillagerBucketPlugin extends JavaPlugin {
     private static VillagerBucketPlugin instance;
     private SchedulerManager schedulerManager;
     private IScheduler scheduler;
+    private TimingWheel expiryWheel;
     private VillagerManager villagerManager;
+    private AdmissionController admissionController;
     private ClaimPluginManager claimPluginManager;
     private VillagerInteractionListener interactionListener;
     private FileConfiguration messagesConfig;
@@ -37,7 +41,12 @@ public class VillagerBucketPlugin extends JavaPlugin {
         this.scheduler = schedulerManager.getScheduler();
         saveDefaultConfig();
         setupMessagesConfig();
+        RegistrySymbols.rebuild(getLogger());
+        // 缓存过期和冷却清理共用一个时间轮，每 tick 推进一次
+        this.expiryWheel = new TimingWheel(50L);
+        scheduler.runAsyncTimer(expiryWheel::advance, 1L, 1L);
         this.villagerManager = new VillagerManager(this);
+        this.admissionController = new AdmissionController(this);
         this.interactionListener = new VillagerInteractionListener(this);
         Bukkit.getPluginManager().registerEvents(interactionListener, this);
 
@@ -76,11 +85,13 @@ public class VillagerBucketPlugin extends JavaPlugin {
         } catch (Throwable t) {
             getLogger().log(Level.WARNING, "清理交互监听器时出错", t);
         }
+        if (admissionController != null) admissionController.cleanup();
         try {
             if (villagerManager != null) villagerManager.cleanup();
         } catch (Throwable t) {
             getLogger().log(Level.WARNING, "清理村民管理器时出错", t);
         }
+        if (expiryWheel != null) expiryWheel.clear();
         getLogger().info("村民桶插件已禁用");
     }
 
@@ -146,6 +157,8 @@ public class VillagerBucketPlugin extends JavaPlugin {
         messagesConfig.addDefault("inventory-full", "&e物品栏已满，物品已掉落在地上！");
         messagesConfig.addDefault("duplicate-release", "&c请勿重复释放村民！");
         messagesConfig.addDefault("nearby-villager", "&c附近已存在太多村民，请换个位置释放！");
+        messagesConfig.addDefault("admission-throttled", "&c操作过于频繁，请稍后再试。");
+        messagesConfig.addDefault("admission-busy", "&c当前区域服务器繁忙，请稍后再试。");
         messagesConfig.addDefault("reloaded", "&a配置已重载！");
         messagesConfig.addDefault("version-info", "&a村民桶插件 &e版本 {0}");
         messagesConfig.addDefault("usage", "&c用法: /villagerbucket [reload|info|version|help|debug|redetect|host]");
@@ -205,13 +218,17 @@ public class VillagerBucketPlugin extends JavaPlugin {
     public static VillagerBucketPlugin getInstance() { return instance; }
     public SchedulerManager getSchedulerManager() { return schedulerManager; }
     public IScheduler getScheduler() { return scheduler; }
+    public TimingWheel getExpiryWheel() { return expiryWheel; }
     public VillagerManager getVillagerManager() { return villagerManager; }
+    public AdmissionController getAdmissionController() { return admissionController; }
     public ClaimPluginManager getClaimManager() { return claimPluginManager; }
     public boolean isFolia() { return schedulerManager != null && schedulerManager.isFolia(); }
 
     public void reloadPluginConfig() {
         reloadConfig();
         reloadMessagesConfig();
+        RegistrySymbols.rebuild(getLogger());
+        if (admissionController != null) admissionController.reload();
         if (claimPluginManager != null) {
             try {
                 claimPluginManager.redetectClaimPlugins();
@@ -1,5 +1,9 @@
 package com.ctn.Villager;
 
+import com.ctn.Villager.cache.CooldownTable;
+import com.ctn.Villager.scheduler.TaskSite;
+import com.ctn.Villager.scheduler.TimingWheel;
+
 import org.bukkit.*;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
@@ -18,23 +22,23 @@ import org.bukkit.inventory.EquipmentSlot;
 import org.bukkit.inventory.ItemStack;
 import java.text.MessageFormat;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class VillagerInteractionListener implements Listener {
 
     private final VillagerBucketPlugin plugin;
     private final VillagerManager villagerManager;
     private final ClaimPluginManager claimManager;
-    private final Map<UUID, Long> releaseCooldown = new ConcurrentHashMap<>();
-    private final Map<String, Long> releaseSpotCooldown = new ConcurrentHashMap<>();
-    private final Map<String, Boolean> processing = new ConcurrentHashMap<>();
+    private final CooldownTable releaseCooldown = new CooldownTable(16);
+    private final Map<String, Object> processing = new ConcurrentHashMap<>();
+    private final TimingWheel expiryWheel;
 
     public VillagerInteractionListener(VillagerBucketPlugin plugin) {
         this.plugin = plugin;
         this.villagerManager = plugin.getVillagerManager();
         this.claimManager = plugin.getClaimManager();
-        startCleanupTask();
+        this.expiryWheel = plugin.getExpiryWheel();
     }
 
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = false)
@@ -83,27 +87,25 @@ public class VillagerInteractionListener implements Listener {
         }
 
         event.setCancelled(true);
-        plugin.getScheduler().runAtEntity(villager, () -> doCapture(player, villager, main));
+        if (!admit(player, villager.getLocation())) return;
+        // 事件线程通常已拥有该村民和玩家，整个捕获流程可在本 tick 内就地完成，否则在村民所属区域线程上回调
+        plugin.getSchedulerManager().recordOperation();
+        villagerManager.captureVillager(villager).whenComplete((villagerBucket, error) -> {
+            if (error != null) {
+                plugin.debug("捕获未完成: " + error.getMessage());
+                send(player, plugin.getMessage("invalid-villager", "&c这个村民无效或已死亡！"));
+                return;
+            }
+            if (villagerBucket == null) {
+                send(player, "&c创建村民桶失败!");
+                return;
+            }
+            finishCapture(player, villager, main, villagerBucket);
+        });
     }
 
-    private void doCapture(final Player player, final Villager villager, final ItemStack bucketInHand) {
-        if (villager.isDead() || !villager.isValid()) {
-            send(player, plugin.getMessage("invalid-villager", "&c这个村民无效或已死亡！"));
-            return;
-        }
-
-        ItemStack villagerBucket;
-        try {
-            villagerBucket = villagerManager.createVillagerBucket(villager);
-        } catch (Exception e) {
-            plugin.getLogger().log(java.util.logging.Level.SEVERE, "创建村民桶失败", e);
-            send(player, "&c创建村民桶失败!");
-            return;
-        }
-
-        final ItemStack finalVillagerBucket = villagerBucket;
-
-        plugin.getScheduler().runAtEntity(player, () -> {
+    private void finishCapture(final Player player, final Villager villager, final ItemStack bucketInHand, final ItemStack finalVillagerBucket) {
+        plugin.getScheduler().executeAtEntity(player, TaskSite.CAPTURE.tag(() -> {
             try {
                 if (bucketInHand.getAmount() > 1) {
                     bucketInHand.setAmount(bucketInHand.getAmount() - 1);
@@ -116,10 +118,12 @@ public class VillagerInteractionListener implements Listener {
                 }
                 player.updateInventory();
 
-                plugin.getScheduler().runAtEntity(villager, villager::remove);
+                // 移除可能就地执行，先取显示名
+                String display = villagerManager.getFullVillagerDisplayName(villager);
+                plugin.getScheduler().executeAtEntity(villager, TaskSite.CAPTURE.tag(villager::remove));
 
                 final Location loc = player.getLocation();
-                plugin.getScheduler().runAtLocation(loc, () -> {
+                plugin.getScheduler().fireAtLocation(loc, () -> {
                     try {
                         loc.getWorld().playSound(loc, Sound.ITEM_BUCKET_FILL, 1.0f, 1.0f);
                         if (plugin.getConfig().getBoolean("settings.enable-particles", true)) {
@@ -128,7 +132,6 @@ public class VillagerInteractionListener implements Listener {
                     } catch (Exception ignored) {}
                 });
 
-                String display = villagerManager.getFullVillagerDisplayName(villager);
                 String tpl = plugin.getMessage("captured", "&a成功捕获{0}！");
                 send(player, MessageFormat.format(tpl, display));
 
@@ -136,7 +139,7 @@ public class VillagerInteractionListener implements Listener {
                 plugin.getLogger().log(java.util.logging.Level.SEVERE, "捕获流程异常", e);
                 send(player, "&c捕获时发生错误!");
             }
-        });
+        }));
     }
 
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = false)
@@ -180,22 +183,34 @@ public class VillagerInteractionListener implements Listener {
             return;
         }
 
-        if (!passReleaseCooldown(player, item, spawnLoc)) {
+        if (!passReleaseCooldown(player, spawnLoc)) {
             send(player, plugin.getMessage("duplicate-release", "&c操作过快，请稍等后再释放。"));
             return;
         }
 
-        final String processingKey = player.getUniqueId() + ":" + System.identityHashCode(item);
-        if (processing.putIfAbsent(processingKey, Boolean.TRUE) != null) return;
+        if (tooCrowded(spawnLoc)) {
+            send(player, plugin.getMessage("nearby-villager", "&c附近已存在太多村民，请换个位置释放！"));
+            return;
+        }
+
+        if (!admit(player, spawnLoc)) return;
 
-        validateBucketAsync(item, isValid -> {
-            if (!isValid) {
+        final String processingKey = player.getUniqueId() + ":" + System.identityHashCode(item);
+        final Object marker = new Object();
+        if (processing.putIfAbsent(processingKey, marker) != null) return;
+        // 区域任务丢失时兜底释放，只移除本次登记的标记
+        expiryWheel.schedule(TimeUnit.SECONDS.toMillis(plugin.getConfig().getLong("settings.folia.timeout-seconds", 10L)),
+                () -> processing.remove(processingKey, marker));
+
+        plugin.getSchedulerManager().recordOperation();
+        villagerManager.readSnapshotAsync(item).thenAccept(snapshot -> {
+            if (snapshot == null) {
                 processing.remove(processingKey);
                 send(player, "&c村民桶数据不完整或已损坏，无法释放村民!");
                 return;
             }
 
-            plugin.getScheduler().runAtLocation(spawnLoc, () -> {
+            plugin.getScheduler().executeAtLocation(spawnLoc, TaskSite.RELEASE.tag(() -> {
                 try {
                     if (isInFluid(spawnLoc)) {
                         processing.remove(processingKey);
@@ -207,22 +222,28 @@ public class VillagerInteractionListener implements Listener {
                         send(player, plugin.getMessage("no-claim-permission-release", "&c你没有权限在此领地内释放村民！"));
                         return;
                     }
+                    // 在目标区域线程上复查一次，解码期间可能有其他村民进入
+                    if (tooCrowded(spawnLoc)) {
+                        processing.remove(processingKey);
+                        send(player, plugin.getMessage("nearby-villager", "&c附近已存在太多村民，请换个位置释放！"));
+                        return;
+                    }
 
-                    Villager v = villagerManager.restoreVillagerFromBucket(item, spawnLoc);
+                    Villager v = villagerManager.spawnVillagerFromSnapshot(snapshot, spawnLoc);
                     if (v == null || v.isDead() || !v.isValid()) {
                         processing.remove(processingKey);
                         send(player, "&c释放村民失败，请换个位置再试!");
                         return;
                     }
 
-                    plugin.getScheduler().runAtEntity(player, () -> {
+                    plugin.getScheduler().executeAtEntity(player, TaskSite.RELEASE.tag(() -> {
                         try {
                             removeOneVillagerBucketGiveEmpty(player, item);
                             player.updateInventory();
                         } catch (Exception e) {
                             plugin.getLogger().log(java.util.logging.Level.SEVERE, "处理释放后物品失败", e);
                         }
-                    });
+                    }));
 
                     playReleaseEffects(spawnLoc);
                     String display = villagerManager.getFullVillagerDisplayName(v);
@@ -235,24 +256,7 @@ public class VillagerInteractionListener implements Listener {
                 } finally {
                     processing.remove(processingKey);
                 }
-            });
-        });
-    }
-
-    private interface BoolCallback {
-        void accept(boolean b);
-    }
-
-    private void validateBucketAsync(final ItemStack bucket, final BoolCallback cb) {
-        plugin.getScheduler().runAsync(() -> {
-            boolean temp;
-            try {
-                temp = villagerManager.isValidVillagerBucket(bucket);
-            } catch (Exception e) {
-                temp = false;
-            }
-            final boolean ok = temp;
-            plugin.getScheduler().runGlobal(() -> cb.accept(ok));
+            }));
         });
     }
 
@@ -269,41 +273,37 @@ public class VillagerInteractionListener implements Listener {
         }
     }
 
-    private boolean passReleaseCooldown(final Player player, final ItemStack item, final Location loc) {
-        final long now = System.currentTimeMillis();
-        final long cd = plugin.getConfig().getLong("settings.anti-duplicate.release-cooldown", 800L);
-
-        final UUID u = player.getUniqueId();
-        final Long last = releaseCooldown.get(u);
-        if (last != null && now - last < cd) return false;
-
-        final String spot = u + ":" + loc.getWorld().getName() + ":" + loc.getBlockX() + "," + loc.getBlockY() + "," + loc.getBlockZ()
-                + ":" + System.identityHashCode(item);
-        final Long lastSpot = releaseSpotCooldown.get(spot);
-        if (lastSpot != null && now - lastSpot < cd) return false;
-
-        releaseCooldown.put(u, now);
-        releaseSpotCooldown.put(spot, now);
-        return true;
+    // 事件在交互所在区域的线程上触发，准入判断用的正是该区域的 tick 耗时
+    private boolean admit(final Player player, final Location loc) {
+        switch (plugin.getAdmissionController().tryAdmit(player, loc)) {
+            case THROTTLED:
+                send(player, plugin.getMessage("admission-throttled", "&c操作过于频繁，请稍后再试。"));
+                return false;
+            case BUSY:
+                send(player, plugin.getMessage("admission-busy", "&c当前区域服务器繁忙，请稍后再试。"));
+                return false;
+            default:
+                return true;
+        }
     }
 
-    private void startCleanupTask() {
-        final Runnable task = new Runnable() {
-            @Override
-            public void run() {
-                cleanupCooldowns();
-                plugin.getScheduler().runAsyncLater(this, 1200L);
-            }
-        };
-        plugin.getScheduler().runAsyncLater(task, 1200L);
+    // 通过村民空间索引检查释放点附近的村民数量，只查覆盖检查范围的区块段
+    private boolean tooCrowded(final Location loc) {
+        if (!plugin.getConfig().getBoolean("settings.anti-duplicate.enabled", true)) return false;
+        final int max = plugin.getConfig().getInt("settings.anti-duplicate.max-nearby-villagers", 4);
+        if (max <= 0) return false;
+        final double radius = plugin.getConfig().getDouble("settings.anti-duplicate.nearby-check-radius", 0.6);
+        return villagerManager.getSpatialIndex().countNear(loc, radius, max) >= max;
     }
 
-    private void cleanupCooldowns() {
+    private boolean passReleaseCooldown(final Player player, final Location loc) {
         final long now = System.currentTimeMillis();
-        final long keep = plugin.getConfig().getLong("settings.anti-duplicate.release-cooldown", 800L) * 10;
+        final long cd = plugin.getConfig().getLong("settings.anti-duplicate.release-cooldown", 800L);
 
-        releaseCooldown.entrySet().removeIf(e -> now - e.getValue() > keep);
-        releaseSpotCooldown.entrySet().removeIf(e -> now - e.getValue() > keep);
+        // 玩家和释放位置各一个 long 键，过期条目由冷却表自行复用，不需要额外清理
+        final long playerKey = CooldownTable.playerKey(player.getUniqueId());
+        final long spotKey = CooldownTable.spotKey(playerKey, loc.getWorld().getUID(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+        return releaseCooldown.tryAcquireBoth(playerKey, spotKey, now, cd);
     }
 
     private boolean isWorldDisabled(final World world) {
@@ -326,7 +326,7 @@ public class VillagerInteractionListener implements Listener {
     }
 
     private void playReleaseEffects(final Location loc) {
-        plugin.getScheduler().runAtLocation(loc, () -> {
+        plugin.getScheduler().fireAtLocation(loc, () -> {
             try {
                 loc.getWorld().playSound(loc, Sound.ITEM_BUCKET_EMPTY, 1.0f, 1.0f);
                 if (plugin.getConfig().getBoolean("settings.enable-particles", true)) {
@@ -338,14 +338,12 @@ public class VillagerInteractionListener implements Listener {
 
     private void send(final Player player, final String msg) {
         if (msg == null || msg.isEmpty()) return;
-        plugin.getScheduler().runAtEntity(player, () ->
-                player.sendMessage(ChatColor.translateAlternateColorCodes('&', msg))
-        );
+        plugin.getScheduler().fireAtEntity(player, () ->
+                player.sendMessage(ChatColor.translateAlternateColorCodes('&', msg)));
     }
 
     public void cleanup() {
         releaseCooldown.clear();
-        releaseSpotCooldown.clear();
         processing.clear();
     }
 }
\ No newline at end of file
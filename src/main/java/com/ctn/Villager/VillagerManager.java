@@ -1,6 +1,17 @@
 package com.ctn.Villager;
 
+import com.ctn.Villager.cache.SnapshotStore;
+import com.ctn.Villager.cache.CompactSnapshot;
+import com.ctn.Villager.cache.ShardedCache;
+import com.ctn.Villager.codec.BucketHeader;
+import com.ctn.Villager.codec.RegistrySymbols;
+import com.ctn.Villager.codec.SnapshotCodec;
+import com.ctn.Villager.scheduler.TaskSite;
 import com.google.gson.Gson;
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
+import io.papermc.paper.event.player.PlayerNameEntityEvent;
+import io.papermc.paper.event.player.PlayerTradeEvent;
 import org.bukkit.*;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
@@ -10,8 +21,14 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.CreatureSpawnEvent;
+import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.EntityRegainHealthEvent;
+import org.bukkit.event.entity.EntityTeleportEvent;
 import org.bukkit.event.entity.EntityTransformEvent;
+import org.bukkit.event.entity.VillagerAcquireTradeEvent;
+import org.bukkit.event.entity.VillagerCareerChangeEvent;
+import org.bukkit.event.entity.VillagerReplenishTradeEvent;
 import org.bukkit.event.player.PlayerInteractEntityEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.inventory.ItemStack;
@@ -21,12 +38,13 @@ import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.NamespacedKey;
-import org.bukkit.Registry;
 
+import java.io.File;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 
 public class VillagerManager {
@@ -34,11 +52,23 @@ public class VillagerManager {
     private final VillagerBucketPlugin plugin;
     private final Gson gson = new Gson();
     private final NamespacedKey villagerDataKey;
+    private final NamespacedKey villagerHeaderKey;
     private final NamespacedKey capturedKey;
     private final NamespacedKey ownerKey;
     private final NamespacedKey customDiscountKey;
     private final NamespacedKey creationSourceKey;
-    private final ConcurrentHashMap<UUID, VillagerSnapshot> villagerCache = new ConcurrentHashMap<>();
+    private final ShardedCache<UUID, CompactSnapshot> villagerCache;
+    private final VillagerSpatialIndex spatialIndex = new VillagerSpatialIndex();
+    private SnapshotStore snapshotStore;
+
+    private static final long DEFAULT_CACHE_WEIGHT = 200_000L;
+
+    private final LongAdder unloadSnapshots = new LongAdder();
+    private final LongAdder unloadUnchanged = new LongAdder();
+    private final LongAdder unloadOverBudget = new LongAdder();
+    private final LongAdder captureReused = new LongAdder();
+    private final LongAdder captureRebuilt = new LongAdder();
+    private final LongAdder snapshotInvalidations = new LongAdder();
 
     private static final Map<Villager.Type, String> VILLAGER_TYPE_NAMES = new HashMap<>();
     private static final Map<Villager.Profession, String> VILLAGER_PROFESSION_NAMES = new HashMap<>();
@@ -82,14 +112,36 @@ public class VillagerManager {
         this.plugin = plugin;
 
         this.villagerDataKey = new NamespacedKey(plugin, "villager_data");
+        this.villagerHeaderKey = new NamespacedKey(plugin, "villager_header");
         this.capturedKey = new NamespacedKey(plugin, "captured");
         this.ownerKey = new NamespacedKey(plugin, "owner");
         this.customDiscountKey = new NamespacedKey(plugin, "discount");
         this.creationSourceKey = new NamespacedKey(plugin, "creation_source");
+        this.villagerCache = new ShardedCache<>(
+                plugin.getConfig().getInt("settings.cache.shards", 16),
+                plugin.getConfig().getLong("settings.cache.max-weight", DEFAULT_CACHE_WEIGHT),
+                snap -> snap.weight);
+        // 写入 30 分钟后由时间轮逐条过期，不再定期扫描整个缓存
+        this.villagerCache.setExpiry(plugin.getExpiryWheel(), TimeUnit.MINUTES.toMillis(30));
 
         Bukkit.getPluginManager().registerEvents(new VillagerEventListener(), plugin);
+        // 非 Folia 核心可以直接在主线程登记已加载的村民；Folia 上由实体加入世界和交互事件逐步登记
+        if (!plugin.isFolia()) {
+            for (World world : Bukkit.getWorlds()) {
+                for (Villager villager : world.getEntitiesByClass(Villager.class)) spatialIndex.add(villager);
+            }
+        }
+
+        if (plugin.getConfig().getBoolean("settings.store.enabled", false)) {
+            try {
+                snapshotStore = SnapshotStore.open(new File(plugin.getDataFolder(), "store"), plugin.getLogger());
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "打开村民快照存储失败，本次运行仅使用内存缓存", e);
+            }
+        }
 
-        startCacheCleanupLoop();
+        startCacheMaintenance();
+        startIndexMaintenance();
     }
 
     public static class VillagerSnapshot {
@@ -110,6 +162,10 @@ public class VillagerManager {
         public String creationSource = "unknown";
         
         public long timestamp = System.currentTimeMillis();
+        // 创建快照时的村民状态指纹，仅在内存中使用，不写入村民桶
+        public transient long stateStamp;
+        // 已编码的村民桶数据，快照未变化时捕获可直接复用
+        public transient byte[] encoded;
     }
 
     public static class MerchantRecipeData {
@@ -137,11 +193,9 @@ public class VillagerManager {
             }
             data.result = ItemData.fromItemStack(recipe.getResult());
 
-            try {
-                data.priceMultiplier = (Float) recipe.getClass().getMethod("getPriceMultiplier").invoke(recipe);
-                data.demand = (Integer) recipe.getClass().getMethod("getDemand").invoke(recipe);
-                data.specialPrice = (Integer) recipe.getClass().getMethod("getSpecialPrice").invoke(recipe);
-            } catch (Exception ignored) {}
+            data.priceMultiplier = recipe.getPriceMultiplier();
+            data.demand = recipe.getDemand();
+            data.specialPrice = recipe.getSpecialPrice();
 
             return data;
         }
@@ -164,11 +218,9 @@ public class VillagerManager {
             r.setExperienceReward(experienceReward);
             r.setVillagerExperience(Math.max(0, villagerExperience));
 
-            try {
-                r.getClass().getMethod("setPriceMultiplier", float.class).invoke(r, priceMultiplier);
-                r.getClass().getMethod("setDemand", int.class).invoke(r, demand);
-                r.getClass().getMethod("setSpecialPrice", int.class).invoke(r, specialPrice);
-            } catch (Exception ignored) {}
+            r.setPriceMultiplier(priceMultiplier);
+            r.setDemand(demand);
+            r.setSpecialPrice(specialPrice);
 
             return r;
         }
@@ -198,12 +250,14 @@ public class VillagerManager {
 
             if (meta.hasEnchants()) {
                 d.enchants = new HashMap<>();
-                meta.getEnchants().forEach((ench, lvl) -> d.enchants.put(ench.getKey().toString(), lvl));
+                RegistrySymbols symbols = RegistrySymbols.get();
+                meta.getEnchants().forEach((ench, lvl) -> d.enchants.put(symbols.enchantmentKey(ench), lvl));
             }
 
             if (meta instanceof EnchantmentStorageMeta esm && esm.hasStoredEnchants()) {
                 d.storedEnchants = new HashMap<>();
-                esm.getStoredEnchants().forEach((ench, lvl) -> d.storedEnchants.put(ench.getKey().toString(), lvl));
+                RegistrySymbols symbols = RegistrySymbols.get();
+                esm.getStoredEnchants().forEach((ench, lvl) -> d.storedEnchants.put(symbols.enchantmentKey(ench), lvl));
             }
 
             if (meta.hasCustomModelData()) d.customModelData = meta.getCustomModelData();
@@ -211,12 +265,9 @@ public class VillagerManager {
         }
 
         public ItemStack toItemStack() {
-            Material m;
-            try {
-                m = Material.valueOf(type);
-            } catch (Exception e) {
-                return new ItemStack(Material.STONE, 1);
-            }
+            RegistrySymbols symbols = RegistrySymbols.get();
+            Material m = symbols.material(type);
+            if (m == null) return new ItemStack(Material.STONE, 1);
 
             ItemStack item = new ItemStack(m, Math.max(1, amount));
             ItemMeta meta = item.getItemMeta();
@@ -227,14 +278,14 @@ public class VillagerManager {
 
             if (enchants != null) {
                 for (Map.Entry<String, Integer> e : enchants.entrySet()) {
-                    Enchantment ench = Enchantment.getByKey(NamespacedKey.fromString(e.getKey()));
+                    Enchantment ench = symbols.enchantment(e.getKey());
                     if (ench != null) meta.addEnchant(ench, e.getValue(), true);
                 }
             }
 
             if (storedEnchants != null && meta instanceof EnchantmentStorageMeta esm) {
                 for (Map.Entry<String, Integer> e : storedEnchants.entrySet()) {
-                    Enchantment ench = Enchantment.getByKey(NamespacedKey.fromString(e.getKey()));
+                    Enchantment ench = symbols.enchantment(e.getKey());
                     if (ench != null) esm.addStoredEnchant(ench, e.getValue(), true);
                 }
                 meta = esm;
@@ -249,18 +300,15 @@ public class VillagerManager {
 
     private class VillagerEventListener implements Listener {
 
+        // 生成时只记录来源这类廉价元数据，完整快照推迟到真正捕获时再创建；
+        // 生成事件本身就在实体所属区域线程上触发，可以直接写 PDC
         @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
         public void onVillagerSpawn(CreatureSpawnEvent event) {
             if (!(event.getEntity() instanceof Villager villager)) return;
-            String src = String.valueOf(event.getSpawnReason());
-
-            plugin.getScheduler().runAtEntity(villager, () -> {
-                VillagerSnapshot snap = snapshotFromVillager(villager);
-                if (snap != null) {
-                    snap.creationSource = src;
-                    villagerCache.put(villager.getUniqueId(), snap);
-                }
-            });
+            PersistentDataContainer pdc = villager.getPersistentDataContainer();
+            if (!pdc.has(creationSourceKey)) {
+                pdc.set(creationSourceKey, PersistentDataType.STRING, String.valueOf(event.getSpawnReason()));
+            }
         }
 
         @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
@@ -270,57 +318,285 @@ public class VillagerManager {
             Entity transformed = event.getTransformedEntity();
             if (!(transformed instanceof Villager villager)) return;
 
-            plugin.getScheduler().runAtEntity(villager, () -> {
+            plugin.getScheduler().runAtEntity(villager, TaskSite.SNAPSHOT.tag(() -> {
                 PersistentDataContainer pdc = villager.getPersistentDataContainer();
                 pdc.set(creationSourceKey, PersistentDataType.STRING, "cured");
                 pdc.set(customDiscountKey, PersistentDataType.DOUBLE, 0.75);
+                // 已缓存的旧快照不再反映治愈后的折扣
+                villagerCache.remove(villager.getUniqueId(), placementOf(villager.getLocation()));
+            }));
+        }
 
-                VillagerSnapshot snap = snapshotFromVillager(villager);
-                if (snap != null) {
-                    snap.creationSource = "cured";
-                    snap.customDiscount = 0.75;
-                    villagerCache.put(villager.getUniqueId(), snap);
-                }
-            });
+        // 实体加入/离开世界覆盖了生成、释放、区块加载、死亡、捕获和区块卸载
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onEntityAdd(EntityAddToWorldEvent event) {
+            if (event.getEntity() instanceof Villager villager) spatialIndex.add(villager);
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onEntityRemove(EntityRemoveFromWorldEvent event) {
+            if (event.getEntity() instanceof Villager) spatialIndex.remove(event.getEntity().getUniqueId());
+        }
+
+        // 走动造成的位置变化由密度检查和定期校正处理，这里只处理传送
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onEntityTeleport(EntityTeleportEvent event) {
+            if (!(event.getEntity() instanceof Villager villager) || event.getTo() == null) return;
+            spatialIndex.move(villager, event.getTo());
+            leaveStripe(villager, event.getFrom(), event.getTo());
         }
 
         @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
         public void onVillagerInteract(PlayerInteractEntityEvent event) {
             if (!(event.getRightClicked() instanceof Villager villager)) return;
+            // 插件重载前已加载的村民在首次交互时补登记
+            spatialIndex.add(villager);
             ItemStack hand = event.getPlayer().getInventory().getItemInMainHand();
             if (hand == null || hand.getType() != Material.BUCKET) return;
 
-            plugin.getScheduler().runAtEntity(villager, () -> {
+            plugin.getScheduler().runAtEntity(villager, TaskSite.SNAPSHOT.tag(() -> {
                 villager.getPersistentDataContainer().set(capturedKey, PersistentDataType.BOOLEAN, true);
-            });
+                markDirty(villager);
+            }));
+        }
+
+        // 以下事件都会改变快照内容，命中时丢弃缓存快照，下次捕获重新创建
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onAcquireTrade(VillagerAcquireTradeEvent event) {
+            markDirty(event.getEntity());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onReplenishTrade(VillagerReplenishTradeEvent event) {
+            markDirty(event.getEntity());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onCareerChange(VillagerCareerChangeEvent event) {
+            markDirty(event.getEntity());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onTrade(PlayerTradeEvent event) {
+            markDirty(event.getVillager());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onDamage(EntityDamageEvent event) {
+            markDirty(event.getEntity());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onHeal(EntityRegainHealthEvent event) {
+            markDirty(event.getEntity());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onNameEntity(PlayerNameEntityEvent event) {
+            markDirty(event.getEntity());
         }
 
         @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
         public void onVillagerDeath(EntityDeathEvent event) {
             if (!(event.getEntity() instanceof Villager)) return;
-            villagerCache.remove(event.getEntity().getUniqueId());
+            villagerCache.remove(event.getEntity().getUniqueId(), placementOf(event.getEntity().getLocation()));
         }
 
+        // 区块卸载时在当前区域线程上按区块整批快照，不再为每个村民各投递一个实体任务；
+        // 状态未变化的村民直接跳过。村民随区块卸载后无法再读取，不能推迟到下个 tick，
+        // 超出 chunk-unload.budget-micros 后仍照常快照，只记录超预算的村民数，供调整预算或缓存策略参考
         @EventHandler(priority = EventPriority.MONITOR)
         public void onChunkUnload(ChunkUnloadEvent event) {
+            if (!plugin.getConfig().getBoolean("settings.chunk-unload.snapshot", true)) return;
+            long budget = TimeUnit.MICROSECONDS.toNanos(
+                    Math.max(0, plugin.getConfig().getLong("settings.chunk-unload.budget-micros", 2000L)));
+            UnloadBudget tick = UNLOAD_BUDGET.get();
+            int placement = ShardedCache.placement(event.getWorld().getUID(), event.getChunk().getX(), event.getChunk().getZ());
+
             for (Entity e : event.getChunk().getEntities()) {
-                if (e instanceof Villager villager) {
-                    plugin.getScheduler().runAtEntity(villager, () -> {
-                        VillagerSnapshot snap = snapshotFromVillager(villager);
-                        if (snap != null) villagerCache.put(villager.getUniqueId(), snap);
-                    });
+                if (!(e instanceof Villager villager)) continue;
+                if (!Bukkit.isOwnedByCurrentRegion(villager)) continue;
+                if (tick.exhausted(budget)) unloadOverBudget.increment();
+
+                long start = System.nanoTime();
+                try {
+                    long stamp = stateStamp(villager);
+                    CompactSnapshot cached = villagerCache.peek(villager.getUniqueId(), placement);
+                    if (cached != null && cached.stateStamp == stamp) {
+                        unloadUnchanged.increment();
+                        continue;
+                    }
+                    VillagerSnapshot snap = snapshotFromVillager(villager);
+                    if (snap != null) {
+                        villagerCache.put(villager.getUniqueId(), placement, compact(snap));
+                        unloadSnapshots.increment();
+                        persistSnapshot(villager.getUniqueId(), snap);
+                    }
+                } finally {
+                    tick.used += System.nanoTime() - start;
                 }
             }
         }
     }
 
+    // 写入磁盘存储的编码和文件写入都放到异步线程
+    private void persistSnapshot(UUID id, VillagerSnapshot snap) {
+        final SnapshotStore store = snapshotStore;
+        if (store == null) return;
+        plugin.getScheduler().runAsync(TaskSite.SNAPSHOT.tag(() -> {
+            byte[] encoded = serializeSnapshot(snap);
+            if (encoded == null) return;
+            try {
+                store.put(id, encoded, snap.timestamp);
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "写入村民快照存储失败", e);
+            }
+        }));
+    }
+
+    // 从磁盘存储读取村民最近的快照，用于恢复；应在异步线程调用
+    public VillagerSnapshot loadStoredSnapshot(UUID id) {
+        if (snapshotStore == null) return null;
+        try {
+            byte[] data = snapshotStore.get(id);
+            return data != null ? deserializeSnapshot(data) : null;
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.WARNING, "读取村民快照存储失败", e);
+            return null;
+        }
+    }
+
+    // 从新到旧返回村民保存过的历史快照，用于审计；应在异步线程调用
+    public List<VillagerSnapshot> loadSnapshotHistory(UUID id, int limit) {
+        List<VillagerSnapshot> out = new ArrayList<>();
+        if (snapshotStore == null) return out;
+        try {
+            for (byte[] data : snapshotStore.history(id, limit)) {
+                VillagerSnapshot s = deserializeSnapshot(data);
+                if (s != null) out.add(s);
+            }
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.WARNING, "读取村民快照历史失败", e);
+        }
+        return out;
+    }
+
+    // 用存储中的快照重新生成村民桶，用于恢复丢失的村民；version 为 0 取最近一次，越大越旧。应在异步线程调用
+    public ItemStack buildBucketFromStore(UUID id, int version) {
+        VillagerSnapshot snap;
+        if (version == 0) {
+            snap = loadStoredSnapshot(id);
+        } else {
+            List<VillagerSnapshot> history = loadSnapshotHistory(id, version + 1);
+            snap = history.size() > version ? history.get(version) : null;
+        }
+        if (snap == null || snap.profession == null || snap.type == null) return null;
+        snap.captured = true;
+        snap.encoded = null;
+        boolean asString = isStringFormat();
+        byte[] payload = encodeBucketPayload(snap, asString);
+        if (payload == null || payload.length == 0) return null;
+        return buildBucketItem(payload, asString, snap, getTypeFromKey(snap.type), getProfessionFromKey(snap.profession), snap.customName);
+    }
+
+    private static int placementOf(Location loc) {
+        return ShardedCache.placement(loc.getWorld().getUID(), loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+    }
+
+    // 缓存按村民所在条带定位分片，离开条带时丢弃旧分片中的快照，下次捕获或卸载时在新条带重新缓存
+    private void leaveStripe(Villager villager, Location from, Location to) {
+        if (from.getWorld() == null) return;
+        int old = placementOf(from);
+        if (to.getWorld() != null && placementOf(to) == old) return;
+        villagerCache.remove(villager.getUniqueId(), old);
+    }
+
+    private void markDirty(Entity entity) {
+        if (!(entity instanceof Villager)) return;
+        if (villagerCache.remove(entity.getUniqueId(), placementOf(entity.getLocation())) != null) snapshotInvalidations.increment();
+    }
+
+    // 捕获时优先复用缓存中未被标脏的快照；年龄等没有事件的变化由状态指纹兜底
+    private VillagerSnapshot captureSnapshot(Villager villager) {
+        CompactSnapshot cached = villagerCache.remove(villager.getUniqueId(), placementOf(villager.getLocation()));
+        if (cached != null && cached.stateStamp == stateStamp(villager)) {
+            captureReused.increment();
+            return cached.toSnapshot();
+        }
+        captureRebuilt.increment();
+        return snapshotFromVillager(villager);
+    }
+
+    // 每个区域线程各自的卸载快照预算，按 50ms（一个 tick）为窗口重置
+    private static final class UnloadBudget {
+        long windowStart;
+        long used;
+
+        boolean exhausted(long budget) {
+            long now = System.nanoTime();
+            if (now - windowStart >= TICK_NANOS) {
+                windowStart = now;
+                used = 0;
+            }
+            return used >= budget;
+        }
+    }
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final ThreadLocal<UnloadBudget> UNLOAD_BUDGET = ThreadLocal.withInitial(UnloadBudget::new);
+
+    // 状态指纹：覆盖写入村民桶的每个字段（含交易物品和插件 PDC 条目），按 64 位混合，
+    // 指纹相同才复用缓存快照及其已编码数据
+    private long stateStamp(Villager villager) {
+        long h = mix(0L, villager.getProfession().hashCode());
+        h = mix(h, villager.getVillagerType().hashCode());
+        h = mix(h, villager.getVillagerLevel());
+        h = mix(h, villager.getVillagerExperience());
+        h = mix(h, villager.isAdult() ? 1 : 0);
+        h = mix(h, villager.getAge());
+        h = mix(h, villager.getAgeLock() ? 1 : 0);
+        h = mix(h, Double.doubleToLongBits(villager.getHealth()));
+        h = mix(h, Double.doubleToLongBits(villager.getMaxHealth()));
+        h = mix(h, Objects.hashCode(villager.getCustomName()));
+
+        PersistentDataContainer pdc = villager.getPersistentDataContainer();
+        h = mix(h, Objects.hashCode(pdc.get(capturedKey, PersistentDataType.BOOLEAN)));
+        h = mix(h, Objects.hashCode(pdc.get(ownerKey, PersistentDataType.STRING)));
+        h = mix(h, Objects.hashCode(pdc.get(customDiscountKey, PersistentDataType.DOUBLE)));
+        h = mix(h, Objects.hashCode(pdc.get(creationSourceKey, PersistentDataType.STRING)));
+
+        int count = villager.getRecipeCount();
+        h = mix(h, count);
+        for (int i = 0; i < count; i++) {
+            MerchantRecipe r = villager.getRecipe(i);
+            h = mix(h, r.getUses());
+            h = mix(h, r.getMaxUses());
+            h = mix(h, r.hasExperienceReward() ? 1 : 0);
+            h = mix(h, r.getVillagerExperience());
+            h = mix(h, Float.floatToIntBits(r.getPriceMultiplier()));
+            h = mix(h, r.getDemand());
+            h = mix(h, r.getSpecialPrice());
+            h = mix(h, Objects.hashCode(r.getResult()));
+            List<ItemStack> ingredients = r.getIngredients();
+            h = mix(h, ingredients.size());
+            for (ItemStack ing : ingredients) h = mix(h, Objects.hashCode(ing));
+        }
+        return h;
+    }
+
+    private static long mix(long h, long v) {
+        h = (h ^ v) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
     private VillagerSnapshot snapshotFromVillager(Villager villager) {
         try {
             VillagerSnapshot s = new VillagerSnapshot();
 
             // 使用 Paper API 获取注册表键名，替代废弃的 name()
-            s.profession = villager.getProfession().getKey().getKey();
-            s.type = villager.getVillagerType().getKey().getKey();
+            RegistrySymbols symbols = RegistrySymbols.get();
+            s.profession = symbols.professionKey(villager.getProfession());
+            s.type = symbols.typeKey(villager.getVillagerType());
             s.level = Math.max(1, villager.getVillagerLevel());
             s.experience = Math.max(0, villager.getVillagerExperience());
             s.adult = villager.isAdult();
@@ -358,6 +634,7 @@ public class VillagerManager {
                 }
             }
 
+            s.stateStamp = stateStamp(villager);
             s.timestamp = System.currentTimeMillis();
             return s;
         } catch (Throwable t) {
@@ -366,64 +643,44 @@ public class VillagerManager {
         }
     }
 
-    public void createVillagerBucketAsync(final Villager villager, final java.util.function.Consumer<ItemStack> callback) {
-        plugin.getScheduler().runAtEntity(villager, () -> {
-            if (villager.isDead() || !villager.isValid()) {
-                callback.accept(null);
-                return;
-            }
-
-            VillagerSnapshot snap = snapshotFromVillager(villager);
-            if (snap == null) {
-                callback.accept(null);
-                return;
-            }
-
-            villager.getPersistentDataContainer().set(capturedKey, PersistentDataType.BOOLEAN, true);
-            snap.captured = true;
-
-            plugin.getScheduler().runAsync(() -> {
-                String encoded = serializeSnapshot(snap);
-                if (encoded == null || encoded.isEmpty()) {
-                    plugin.getScheduler().runGlobal(() -> callback.accept(null));
+    // 在村民所属区域线程上创建快照并生成村民桶，调用方已拥有该村民时就地执行，调用方不会被阻塞；
+    // 村民失效（包括任务执行前被实体调度器撤销）时以异常结束，快照或编码失败时结果为 null
+    public CompletableFuture<ItemStack> captureVillager(final Villager villager) {
+        final CompletableFuture<ItemStack> future = new CompletableFuture<>();
+        plugin.getScheduler().executeAtEntity(villager, TaskSite.CAPTURE.tag(() -> {
+            try {
+                if (villager.isDead() || !villager.isValid()) {
+                    future.completeExceptionally(new IllegalStateException("村民已死亡或无效"));
+                    return;
+                }
+                VillagerSnapshot snap = captureSnapshot(villager);
+                if (snap == null) {
+                    future.complete(null);
                     return;
                 }
 
-                plugin.getScheduler().runGlobal(() -> {
-                    ItemStack bucket = buildBucketItem(encoded, snap, villager.getVillagerType(), villager.getProfession(), villager.getCustomName());
-                    callback.accept(bucket);
-                });
-            });
-        });
-    }
-
-    public ItemStack createVillagerBucket(Villager villager) {
-        if (Bukkit.isPrimaryThread()) {
-            VillagerSnapshot snap = snapshotFromVillager(villager);
-            if (snap == null) return null;
-            String encoded = serializeSnapshot(snap);
-            if (encoded == null) return null;
-            return buildBucketItem(encoded, snap, villager.getVillagerType(), villager.getProfession(), villager.getCustomName());
-        }
-
-        final ItemStack[] out = {null};
-        final java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(1);
+                if (!snap.captured) {
+                    snap.captured = true;
+                    snap.encoded = null;
+                }
 
-        plugin.getScheduler().runAtEntity(villager, () -> {
-            try {
-                VillagerSnapshot snap = snapshotFromVillager(villager);
-                String encoded = (snap == null ? null : serializeSnapshot(snap));
-                out[0] = (encoded == null ? null : buildBucketItem(encoded, snap, villager.getVillagerType(), villager.getProfession(), villager.getCustomName()));
-            } finally {
-                latch.countDown();
+                // 编码失败（如交易段超出上限）时村民保持原样，不标记为已捕获
+                boolean asString = isStringFormat();
+                byte[] payload = encodeBucketPayload(snap, asString);
+                if (payload == null || payload.length == 0) {
+                    future.complete(null);
+                    return;
+                }
+                villager.getPersistentDataContainer().set(capturedKey, PersistentDataType.BOOLEAN, true);
+                future.complete(buildBucketItem(payload, asString, snap, villager.getVillagerType(), villager.getProfession(), villager.getCustomName()));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
             }
-        });
-
-        try { latch.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        return out[0];
+        }), () -> future.completeExceptionally(new IllegalStateException("村民已失效，捕获任务被撤销")));
+        return future;
     }
 
-    private ItemStack buildBucketItem(String encoded, VillagerSnapshot snap, Villager.Type type, Villager.Profession prof, String customName) {
+    private ItemStack buildBucketItem(byte[] payload, boolean asString, VillagerSnapshot snap, Villager.Type type, Villager.Profession prof, String customName) {
         ItemStack bucket = new ItemStack(Material.BUCKET);
         ItemMeta meta = bucket.getItemMeta();
         if (meta == null) meta = Bukkit.getItemFactory().getItemMeta(Material.BUCKET);
@@ -457,71 +714,46 @@ public class VillagerManager {
         int cmd = plugin.getConfig().getInt("settings.custom-model-data", 1000);
         try { meta.setCustomModelData(cmd); } catch (Exception ignored) {}
 
-        meta.getPersistentDataContainer().set(villagerDataKey, PersistentDataType.STRING, encoded);
+        writePayload(meta.getPersistentDataContainer(), payload, asString, snap);
         bucket.setItemMeta(meta);
 
         return bucket;
     }
 
-    public void restoreVillagerFromBucketAsync(final ItemStack bucket, final Location loc, final java.util.function.Consumer<Villager> callback) {
-        if (!isVillagerBucket(bucket)) {
-            callback.accept(null);
-            return;
-        }
-
-        plugin.getScheduler().runAsync(() -> {
-            VillagerSnapshot snap = null;
-            try {
-                ItemMeta meta = bucket.getItemMeta();
-                if (meta != null) {
-                    String data = meta.getPersistentDataContainer().get(villagerDataKey, PersistentDataType.STRING);
-                    if (data != null && !data.isEmpty()) snap = deserializeSnapshot(data);
-                }
-            } catch (Exception ignored) {}
-
-            final VillagerSnapshot finalSnap = snap;
-            plugin.getScheduler().runAtLocation(loc, () -> {
-                if (finalSnap == null) {
-                    callback.accept(null);
-                    return;
-                }
-                try {
-                    Villager v = restoreVillagerFromSnapshot(finalSnap, loc);
-                    callback.accept(v);
-                } catch (Exception e) {
-                    plugin.getLogger().log(Level.SEVERE, "恢复村民失败", e);
-                    callback.accept(null);
-                }
-            });
-        });
+    // 在异步线程解码，数据损坏时结果为 null
+    public CompletableFuture<VillagerSnapshot> readSnapshotAsync(final ItemStack bucket) {
+        final CompletableFuture<VillagerSnapshot> future = new CompletableFuture<>();
+        plugin.getScheduler().runAsync(TaskSite.RELEASE.tag(() -> future.complete(readSnapshotFromBucket(bucket))));
+        return future;
     }
 
-    public Villager restoreVillagerFromBucket(ItemStack bucket, Location loc) {
+    // 释放流程在异步线程解码一次，之后把快照直接交给区域线程生成村民，避免重复解析
+    public VillagerSnapshot readSnapshotFromBucket(ItemStack bucket) {
         if (!isVillagerBucket(bucket)) return null;
-
-        ItemMeta meta = bucket.getItemMeta();
-        if (meta == null) return null;
-
-        String data = meta.getPersistentDataContainer().get(villagerDataKey, PersistentDataType.STRING);
-        if (data == null || data.isEmpty()) return null;
-
-        VillagerSnapshot snap = deserializeSnapshot(data);
-        if (snap == null) return null;
-
-        if (Bukkit.isPrimaryThread()) {
-            return restoreVillagerFromSnapshot(snap, loc);
+        try {
+            ItemMeta meta = bucket.getItemMeta();
+            if (meta == null) return null;
+            PersistentDataContainer pdc = meta.getPersistentDataContainer();
+            byte[] data = readPayload(pdc);
+            if (data == null) return null;
+            // 有头部的村民桶先校验长度和 CRC，被篡改的数据不再进入完整解码
+            if (pdc.has(villagerHeaderKey)) {
+                BucketHeader header = readHeader(pdc);
+                if (header == null || !header.isComplete() || !header.matches(data)) return null;
+            }
+            VillagerSnapshot s = deserializeSnapshot(data);
+            if (s == null || s.profession == null || s.type == null) return null;
+            if (!SnapshotCodec.isLegacyJson(data)) s.encoded = data;
+            return s;
+        } catch (Exception e) {
+            return null;
         }
+    }
 
-        final Villager[] out = {null};
-        final java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(1);
-
-        plugin.getScheduler().runAtLocation(loc, () -> {
-            try { out[0] = restoreVillagerFromSnapshot(snap, loc); }
-            finally { latch.countDown(); }
-        });
-
-        try { latch.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        return out[0];
+    // 必须在 loc 所属的区域线程调用
+    public Villager spawnVillagerFromSnapshot(VillagerSnapshot snap, Location loc) {
+        if (snap == null || loc == null || loc.getWorld() == null) return null;
+        return restoreVillagerFromSnapshot(snap, loc);
     }
 
     private Villager restoreVillagerFromSnapshot(VillagerSnapshot s, Location loc) {
@@ -565,48 +797,122 @@ public class VillagerManager {
         v.setAware(true);
 
         s.timestamp = System.currentTimeMillis();
-        villagerCache.put(v.getUniqueId(), s);
+        // 生成的村民状态以实体为准（生命值被钳制、PDC 被重写等），桶里的编码数据不能原样复用；
+        // 未保存交易时交易也与快照不一致
+        s.encoded = null;
+        if (!plugin.getConfig().getBoolean("settings.save-trades", true)) s.recipes = null;
+        s.stateStamp = stateStamp(v);
+        villagerCache.put(v.getUniqueId(), placementOf(loc), compact(s));
 
         return v;
     }
 
-    private String serializeSnapshot(VillagerSnapshot snap) {
+    private byte[] serializeSnapshot(VillagerSnapshot snap) {
+        if (snap.encoded != null) return snap.encoded;
         try {
-            String json = gson.toJson(snap);
-            return Base64.getEncoder().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+            snap.encoded = SnapshotCodec.encode(snap, plugin.getConfig().getBoolean("settings.storage.compress-trades", true));
+            return snap.encoded;
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("序列化失败: " + e.getMessage());
+            return null;
         } catch (Exception e) {
             plugin.getLogger().log(Level.SEVERE, "序列化失败", e);
             return null;
         }
     }
 
-    private VillagerSnapshot deserializeSnapshot(String data) {
+    private VillagerSnapshot deserializeSnapshot(byte[] raw) {
         try {
-            String decoded = new String(Base64.getDecoder().decode(data), StandardCharsets.UTF_8);
-            return gson.fromJson(decoded, VillagerSnapshot.class);
+            // 兼容旧版本写入的 JSON 村民桶
+            if (SnapshotCodec.isLegacyJson(raw)) {
+                return gson.fromJson(new String(raw, StandardCharsets.UTF_8), VillagerSnapshot.class);
+            }
+            return SnapshotCodec.decode(raw);
         } catch (Exception e) {
+            plugin.debug("解析村民数据失败: " + e.getMessage());
             return null;
         }
     }
 
+    // 默认以 BYTE_ARRAY 存入二进制编码；storage.format 设为 string 时写入旧版的 Base64 JSON，
+    // 旧版本插件只认这种格式，回退旧版本时已捕获的村民桶仍可释放
+    private boolean isStringFormat() {
+        return "string".equalsIgnoreCase(plugin.getConfig().getString("settings.storage.format", "byte-array"));
+    }
+
+    // 按写入格式编码，每次生成村民桶只编码一次：二进制格式复用快照已缓存的编码，字符串格式只生成 JSON
+    private byte[] encodeBucketPayload(VillagerSnapshot snap, boolean asString) {
+        if (!asString) return serializeSnapshot(snap);
+        try {
+            return gson.toJson(snap).getBytes(StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "序列化失败", e);
+            return null;
+        }
+    }
+
+    private void writePayload(PersistentDataContainer pdc, byte[] payload, boolean asString, VillagerSnapshot snap) {
+        pdc.set(villagerHeaderKey, PersistentDataType.BYTE_ARRAY, BucketHeader.of(snap, payload).encode());
+        if (asString) {
+            pdc.set(villagerDataKey, PersistentDataType.STRING, Base64.getEncoder().encodeToString(payload));
+        } else {
+            pdc.set(villagerDataKey, PersistentDataType.BYTE_ARRAY, payload);
+        }
+    }
+
+    // 同时读取新版 BYTE_ARRAY 与旧版 Base64 STRING 两种存储
+    private byte[] readPayload(PersistentDataContainer pdc) {
+        if (pdc.has(villagerDataKey, PersistentDataType.BYTE_ARRAY)) {
+            byte[] data = pdc.get(villagerDataKey, PersistentDataType.BYTE_ARRAY);
+            return (data == null || data.length == 0) ? null : data;
+        }
+        if (pdc.has(villagerDataKey, PersistentDataType.STRING)) {
+            String data = pdc.get(villagerDataKey, PersistentDataType.STRING);
+            if (data == null || data.isEmpty()) return null;
+            try {
+                return Base64.getDecoder().decode(data);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
     public boolean isVillagerBucket(ItemStack item) {
         if (item == null || item.getType() != Material.BUCKET) return false;
         ItemMeta meta = item.getItemMeta();
         if (meta == null) return false;
-        return meta.getPersistentDataContainer().has(villagerDataKey, PersistentDataType.STRING);
+        return meta.getPersistentDataContainer().has(villagerDataKey);
     }
 
     public boolean isValidVillagerBucket(ItemStack bucket) {
         if (!isVillagerBucket(bucket)) return false;
+        ItemMeta meta = bucket.getItemMeta();
+        if (meta == null) return false;
+        PersistentDataContainer pdc = meta.getPersistentDataContainer();
+        if (pdc.has(villagerHeaderKey)) {
+            BucketHeader header = readHeader(pdc);
+            return header != null && header.isComplete() && header.matches(readPayload(pdc));
+        }
+        // 旧版村民桶没有头部，只能完整解码
+        return readSnapshotFromBucket(bucket) != null;
+    }
+
+    // 只读取头部，用于显示和快速检查，不解码交易数据；旧版村民桶返回 null
+    public BucketHeader getBucketHeader(ItemStack bucket) {
+        if (!isVillagerBucket(bucket)) return null;
+        ItemMeta meta = bucket.getItemMeta();
+        return meta == null ? null : readHeader(meta.getPersistentDataContainer());
+    }
+
+    private BucketHeader readHeader(PersistentDataContainer pdc) {
+        byte[] raw = pdc.get(villagerHeaderKey, PersistentDataType.BYTE_ARRAY);
+        if (raw == null) return null;
         try {
-            ItemMeta meta = bucket.getItemMeta();
-            if (meta == null) return false;
-            String data = meta.getPersistentDataContainer().get(villagerDataKey, PersistentDataType.STRING);
-            if (data == null || data.isEmpty()) return false;
-            VillagerSnapshot s = deserializeSnapshot(data);
-            return s != null && s.profession != null && s.type != null;
+            return BucketHeader.decode(raw);
         } catch (Exception e) {
-            return false;
+            plugin.debug("解析村民桶头部失败: " + e.getMessage());
+            return null;
         }
     }
 
@@ -638,50 +944,110 @@ public class VillagerManager {
         return c + name;
     }
 
-    // 使用 Paper API 从键名获取 Profession
+    // 通过符号表从键名获取 Profession
     private Villager.Profession getProfessionFromKey(String key) {
-        if (key == null || key.isEmpty()) return Villager.Profession.NONE;
-        NamespacedKey nk = NamespacedKey.minecraft(key.toLowerCase());
-        Villager.Profession profession = Registry.VILLAGER_PROFESSION.get(nk);
+        Villager.Profession profession = RegistrySymbols.get().profession(key);
         return profession != null ? profession : Villager.Profession.NONE;
     }
 
-    // 使用 Paper API 从键名获取 Type
+    // 通过符号表从键名获取 Type
     private Villager.Type getTypeFromKey(String key) {
-        if (key == null || key.isEmpty()) return Villager.Type.PLAINS;
-        NamespacedKey nk = NamespacedKey.minecraft(key.toLowerCase());
-        Villager.Type type = Registry.VILLAGER_TYPE.get(nk);
+        Villager.Type type = RegistrySymbols.get().type(key);
         return type != null ? type : Villager.Type.PLAINS;
     }
 
-    private void startCacheCleanupLoop() {
-        Runnable task = new Runnable() {
-            @Override
-            public void run() {
-                cleanExpiredCache();
-                plugin.getScheduler().runAsyncLater(this, 20L * 60L * 30L);
+    // 缓存权重估算：村民本身计 1，每条交易按其物品数和附魔数累加，附带的编码数据每 64 字节再计 1
+    private static CompactSnapshot compact(VillagerSnapshot s) {
+        return CompactSnapshot.of(s, estimateWeight(s));
+    }
+
+    static int estimateWeight(VillagerSnapshot s) {
+        int weight = 1;
+        if (s.encoded != null) weight += s.encoded.length >> 6;
+        if (s.recipes == null) return weight;
+        for (MerchantRecipeData r : s.recipes) {
+            weight += 1 + itemWeight(r.result);
+            if (r.ingredients != null) {
+                for (ItemData item : r.ingredients) weight += itemWeight(item);
             }
-        };
-        plugin.getScheduler().runAsyncLater(task, 20L * 60L * 30L);
+        }
+        return weight;
+    }
+
+    private static int itemWeight(ItemData item) {
+        if (item == null) return 0;
+        int weight = 1;
+        if (item.enchants != null) weight += item.enchants.size();
+        if (item.storedEnchants != null) weight += item.storedEnchants.size();
+        if (item.lore != null) weight += item.lore.size();
+        return weight;
     }
 
-    private void cleanExpiredCache() {
-        long now = System.currentTimeMillis();
-        long expire = TimeUnit.MINUTES.toMillis(30);
+    private void startCacheMaintenance() {
+        long period = 20L * 60L * 30L;
+        plugin.getScheduler().runAsyncTimer(this::maintainCache, period, period);
+    }
 
-        villagerCache.entrySet().removeIf(e -> (now - e.getValue().timestamp) > expire);
-        plugin.debug("清理村民缓存，剩余: " + villagerCache.size());
+    // 过期条目已由时间轮移除，这里只同步容量配置并压缩磁盘存储
+    // 按非空区块段投递到各自的区域线程校正村民位置，村民越密集，每个任务覆盖的村民越多
+    private void startIndexMaintenance() {
+        long period = plugin.getConfig().getLong("settings.spatial-index.reindex-ticks", 100L);
+        if (period <= 0) return;
+        plugin.getScheduler().runAsyncTimer(() -> {
+            for (UUID worldId : spatialIndex.worldIds()) {
+                World world = Bukkit.getWorld(worldId);
+                if (world == null) continue;
+                for (long key : spatialIndex.sectionKeys(worldId)) {
+                    Location center = new Location(world, VillagerSpatialIndex.sectionCenterX(key),
+                            VillagerSpatialIndex.sectionCenterY(key), VillagerSpatialIndex.sectionCenterZ(key));
+                    plugin.getScheduler().runAtLocation(center, () -> spatialIndex.refreshSection(worldId, key));
+                }
+            }
+        }, period, period);
+    }
+
+    private void maintainCache() {
+        villagerCache.setMaxWeight(plugin.getConfig().getLong("settings.cache.max-weight", DEFAULT_CACHE_WEIGHT));
+        plugin.debug("村民缓存维护，当前: " + villagerCache.size() + " 条，已过期: " + villagerCache.getExpirations());
+
+        SnapshotStore store = snapshotStore;
+        if (store != null) {
+            long minBytes = plugin.getConfig().getLong("settings.store.compact-min-mb", 16L) << 20;
+            try {
+                if (store.needsCompaction(minBytes)) store.compact(plugin.getConfig().getInt("settings.store.keep-history", 3));
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "压缩村民快照存储失败", e);
+            }
+        }
     }
 
     public void cleanup() {
         villagerCache.clear();
+        spatialIndex.clear();
+        if (snapshotStore != null) {
+            try {
+                snapshotStore.close();
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "关闭村民快照存储失败", e);
+            }
+            snapshotStore = null;
+        }
         plugin.debug("VillagerManager 已清理");
     }
 
     public NamespacedKey getVillagerDataKey() { return villagerDataKey; }
+    public NamespacedKey getVillagerHeaderKey() { return villagerHeaderKey; }
     public NamespacedKey getCapturedKey() { return capturedKey; }
     public NamespacedKey getOwnerKey() { return ownerKey; }
     public NamespacedKey getCustomDiscountKey() { return customDiscountKey; }
     public NamespacedKey getCreationSourceKey() { return creationSourceKey; }
     public int getCacheSize() { return villagerCache.size(); }
+
+    public String describeSnapshotStats() {
+        return "区块卸载快照: 新建 " + unloadSnapshots.sum() + ", 未变化跳过 " + unloadUnchanged.sum() + ", 超出预算 " + unloadOverBudget.sum()
+                + "\n捕获快照: 复用 " + captureReused.sum() + ", 重新创建 " + captureRebuilt.sum() + ", 因变化失效 " + snapshotInvalidations.sum();
+    }
+    public ShardedCache<UUID, CompactSnapshot> getVillagerCache() { return villagerCache; }
+    public VillagerSpatialIndex getSpatialIndex() { return spatialIndex; }
+    public SnapshotStore getSnapshotStore() { return snapshotStore; }
 }
\ No newline at end of file
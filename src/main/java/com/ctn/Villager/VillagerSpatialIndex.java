@@ -0,0 +1,224 @@
+package com.ctn.Villager;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Villager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 按区块段（16x16x16）索引已加载的村民：实体加入/离开世界时登记和移除，传送、密度检查和定期校正时重新归段，
+// 释放前的密度检查只看覆盖检查范围的少数几个区块段，不再调用 getNearbyEntities。
+// 不同 Folia 区域只会写各自区块段的条目，互不竞争
+public class VillagerSpatialIndex {
+
+    private static final class Entry {
+        final Villager villager;
+        final UUID worldId;
+        long section;
+        boolean linked;
+        double x, y, z;
+
+        Entry(Villager villager, UUID worldId) {
+            this.villager = villager;
+            this.worldId = worldId;
+        }
+    }
+
+    private static final class Section {
+        final List<Entry> entries = new ArrayList<>(4);
+    }
+
+    private final Map<UUID, Map<Long, Section>> worlds = new ConcurrentHashMap<>();
+    private final Map<UUID, Entry> byVillager = new ConcurrentHashMap<>();
+    // 读取实体位置用的复用对象，每个区域线程一个
+    private static final ThreadLocal<Location> SCRATCH = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+
+    public static long sectionKey(int sectionX, int sectionY, int sectionZ) {
+        return ((long) (sectionX & 0x3FFFFF) << 42) | ((long) (sectionZ & 0x3FFFFF) << 20) | (sectionY & 0xFFFFFL);
+    }
+
+    // 必须在村民所属区域线程上调用
+    public void add(Villager villager) {
+        Location loc = villager.getLocation();
+        UUID worldId = loc.getWorld().getUID();
+        Entry old = byVillager.get(villager.getUniqueId());
+        if (old != null && !old.worldId.equals(worldId)) {
+            remove(villager.getUniqueId());
+            old = null;
+        }
+        Entry e = old != null ? old : new Entry(villager, worldId);
+        place(e, loc.getX(), loc.getY(), loc.getZ());
+        if (old == null) byVillager.put(villager.getUniqueId(), e);
+    }
+
+    // 同一世界内传送时在村民所属区域线程上调用；换世界由加入/离开世界事件处理
+    public void move(Villager villager, Location to) {
+        Entry e = byVillager.get(villager.getUniqueId());
+        if (e == null || to.getWorld() == null || !e.worldId.equals(to.getWorld().getUID())) return;
+        place(e, to.getX(), to.getY(), to.getZ());
+    }
+
+    public void remove(UUID villagerId) {
+        Entry e = byVillager.remove(villagerId);
+        if (e == null) return;
+        Map<Long, Section> sections = worlds.get(e.worldId);
+        if (sections == null) return;
+        synchronized (e) {
+            unlink(sections, e);
+        }
+    }
+
+    private void place(Entry e, double x, double y, double z) {
+        long key = sectionKeyOf(x, y, z);
+        Map<Long, Section> sections = worlds.computeIfAbsent(e.worldId, id -> new ConcurrentHashMap<>());
+        synchronized (e) {
+            if (e.linked && e.section == key) {
+                e.x = x; e.y = y; e.z = z;
+                return;
+            }
+            if (e.linked) unlink(sections, e);
+            e.section = key;
+            e.linked = true;
+            e.x = x; e.y = y; e.z = z;
+            while (true) {
+                Section s = sections.computeIfAbsent(key, k -> new Section());
+                synchronized (s) {
+                    // 区块段可能刚因变空被移除，重新取一次
+                    if (sections.get(key) != s) continue;
+                    s.entries.add(e);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void unlink(Map<Long, Section> sections, Entry e) {
+        e.linked = false;
+        Section s = sections.get(e.section);
+        if (s == null) return;
+        synchronized (s) {
+            s.entries.remove(e);
+            if (s.entries.isEmpty()) sections.remove(e.section, s);
+        }
+    }
+
+    // 统计 loc 周围 radius 内已登记的村民，在各区块段的锁内直接计数，不复制候选列表；达到 limit 即提前返回。
+    // 在所属区域线程上的条目用实体当前位置判断，只有所在区块段确实变了才重新归段（放到锁外进行）
+    public int countNear(Location loc, double radius, int limit) {
+        Map<Long, Section> sections = worlds.get(loc.getWorld().getUID());
+        if (sections == null) return 0;
+        Location live = SCRATCH.get();
+        double r2 = radius * radius;
+        int minX = (int) Math.floor(loc.getX() - radius) >> 4, maxX = (int) Math.floor(loc.getX() + radius) >> 4;
+        int minY = (int) Math.floor(loc.getY() - radius) >> 4, maxY = (int) Math.floor(loc.getY() + radius) >> 4;
+        int minZ = (int) Math.floor(loc.getZ() - radius) >> 4, maxZ = (int) Math.floor(loc.getZ() + radius) >> 4;
+        int count = 0;
+        List<Entry> stale = null;
+        scan:
+        for (int sx = minX; sx <= maxX; sx++) {
+            for (int sy = minY; sy <= maxY; sy++) {
+                for (int sz = minZ; sz <= maxZ; sz++) {
+                    Section s = sections.get(sectionKey(sx, sy, sz));
+                    if (s == null) continue;
+                    synchronized (s) {
+                        for (int i = 0; i < s.entries.size(); i++) {
+                            Entry e = s.entries.get(i);
+                            double x = e.x, y = e.y, z = e.z;
+                            if (Bukkit.isOwnedByCurrentRegion(e.villager)) {
+                                if (!e.villager.isValid()) {
+                                    if (stale == null) stale = new ArrayList<>();
+                                    stale.add(e);
+                                    continue;
+                                }
+                                e.villager.getLocation(live);
+                                x = live.getX(); y = live.getY(); z = live.getZ();
+                                if (sectionKeyOf(x, y, z) != e.section) {
+                                    if (stale == null) stale = new ArrayList<>();
+                                    stale.add(e);
+                                }
+                            }
+                            double dx = x - loc.getX(), dy = y - loc.getY(), dz = z - loc.getZ();
+                            if (dx * dx + dy * dy + dz * dz > r2) continue;
+                            if (++count >= limit) break scan;
+                        }
+                    }
+                }
+            }
+        }
+        if (stale != null) {
+            for (Entry e : stale) refresh(e);
+        }
+        return count;
+    }
+
+    // 在所属区域线程上用实体当前位置校正条目，失效的村民直接移除
+    private void refresh(Entry e) {
+        if (!e.villager.isValid()) {
+            remove(e.villager.getUniqueId());
+            return;
+        }
+        Location live = e.villager.getLocation(SCRATCH.get());
+        place(e, live.getX(), live.getY(), live.getZ());
+    }
+
+    // 定期校正一个区块段内的条目，由区块段所在区域线程调用；不属于当前区域的条目留给它们自己的区域
+    public void refreshSection(UUID worldId, long key) {
+        Map<Long, Section> sections = worlds.get(worldId);
+        if (sections == null) return;
+        Section s = sections.get(key);
+        if (s == null) return;
+        Entry[] entries;
+        synchronized (s) {
+            entries = s.entries.toArray(new Entry[0]);
+        }
+        for (Entry e : entries) {
+            if (Bukkit.isOwnedByCurrentRegion(e.villager)) refresh(e);
+        }
+    }
+
+    // 当前所有非空区块段的键，供定期校正按区块段投递任务
+    public long[] sectionKeys(UUID worldId) {
+        Map<Long, Section> sections = worlds.get(worldId);
+        if (sections == null) return new long[0];
+        long[] keys = new long[sections.size()];
+        int n = 0;
+        for (Long key : sections.keySet()) {
+            if (n == keys.length) keys = java.util.Arrays.copyOf(keys, n * 2 + 1);
+            keys[n++] = key;
+        }
+        return n == keys.length ? keys : java.util.Arrays.copyOf(keys, n);
+    }
+
+    public Set<UUID> worldIds() {
+        return worlds.keySet();
+    }
+
+    // 区块段键的逆运算，返回区块段中心的方块坐标
+    public static int sectionCenterX(long key) { return (((int) (key >> 42) << 10) >> 10 << 4) + 8; }
+    public static int sectionCenterY(long key) { return (((int) (key & 0xFFFFF) << 12) >> 12 << 4) + 8; }
+    public static int sectionCenterZ(long key) { return (((int) ((key >> 20) & 0x3FFFFF) << 10) >> 10 << 4) + 8; }
+
+    private static long sectionKeyOf(double x, double y, double z) {
+        return sectionKey((int) Math.floor(x) >> 4, (int) Math.floor(y) >> 4, (int) Math.floor(z) >> 4);
+    }
+
+    public int size() {
+        return byVillager.size();
+    }
+
+    public void clear() {
+        worlds.clear();
+        byVillager.clear();
+    }
+
+    public String describe() {
+        int sections = 0;
+        for (Map<Long, Section> m : worlds.values()) sections += m.size();
+        return "村民空间索引: " + byVillager.size() + " 个村民, " + sections + " 个区块段";
+    }
+}
@@ -0,0 +1,72 @@
+package com.ctn.Villager.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// 缓存争用基准：多个线程各自模拟一个区域，在自己的区块条带内读写村民快照，
+// 分别测量单一全局缓存和分片缓存的吞吐量。由 /villagerbucket bench cache 在异步线程调用
+public final class CacheBenchmark {
+
+    private static final int KEYS_PER_THREAD = 4096;
+
+    private CacheBenchmark() {}
+
+    public static List<String> run(int threads, long millisPerRun, int shardCount) throws InterruptedException {
+        List<String> out = new ArrayList<>();
+        long single = measure(new ShardedCache<>(1, 1_000_000L, v -> 40), threads, millisPerRun);
+        long sharded = measure(new ShardedCache<>(shardCount, 1_000_000L, v -> 40), threads, millisPerRun);
+        out.add("缓存争用测试: " + threads + " 个线程, 每轮 " + millisPerRun + " ms, 80% 读 / 20% 写");
+        out.add(String.format("单一缓存: %,d 次/秒", single * 1000L / millisPerRun));
+        out.add(String.format("%d 分片缓存: %,d 次/秒 (%.2fx)", shardCount, sharded * 1000L / millisPerRun,
+                single > 0 ? (double) sharded / single : 0.0));
+        return out;
+    }
+
+    private static long measure(ShardedCache<UUID, Object> cache, int threads, long millis) throws InterruptedException {
+        UUID world = UUID.randomUUID();
+        Object value = new Object();
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        UUID[][] keySets = new UUID[threads][KEYS_PER_THREAD];
+        for (UUID[] keys : keySets) {
+            for (int i = 0; i < keys.length; i++) keys[i] = UUID.randomUUID();
+        }
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+
+        for (int t = 0; t < threads; t++) {
+            // 每个线程占用相距较远的一块区域，对应不同的 Folia 区域
+            final int placement = ShardedCache.placement(world, t * 256, t * 256);
+            final UUID[] keys = keySets[t];
+
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    long n = 0;
+                    while ((n & 255) != 0 || System.nanoTime() < deadline) {
+                        UUID key = keys[rnd.nextInt(keys.length)];
+                        if (rnd.nextInt(5) == 0) cache.put(key, placement, value);
+                        else cache.get(key, placement);
+                        n++;
+                    }
+                    ops.add(n);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "VillagerBucket-Bench-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        start.countDown();
+        done.await();
+        return ops.sum();
+    }
+}
@@ -0,0 +1,134 @@
+package com.ctn.Villager.cache;
+
+import com.ctn.Villager.VillagerManager.MerchantRecipeData;
+import com.ctn.Villager.VillagerManager.VillagerSnapshot;
+import com.ctn.Villager.codec.KeyTable;
+import com.ctn.Villager.codec.SnapshotCodec;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+// 村民快照在内存缓存中的紧凑形式：注册表键存为 KeyTable id，布尔值压进一个 int，
+// 交易拆成共享的不可变模板和每条 3 个 int 的可变状态；只有在捕获或生成村民时才还原成完整的 VillagerSnapshot
+public final class CompactSnapshot {
+
+    private static final int ADULT = 1;
+    private static final int AGE_LOCK = 1 << 1;
+    private static final int CAPTURED = 1 << 2;
+    private static final int OWNER = 1 << 3;
+    private static final int RECIPES = 1 << 4;
+
+    private final short professionId;
+    private final short typeId;
+    // 不在 KeyTable 中的键（例如数据包新增的职业）才保留字符串
+    private final String professionKey;
+    private final String typeKey;
+    private final int flags;
+    private final int level;
+    private final int experience;
+    private final int age;
+    private final double health;
+    private final double maxHealth;
+    private final double customDiscount;
+    private final long ownerMost;
+    private final long ownerLeast;
+    private final String customName;
+    private final String creationSource;
+    // 已有完整村民桶数据时直接保存它，否则保存交易模板和状态
+    private final byte[] payload;
+    private final TradeTemplate[] templates;
+    // 每条交易依次为 uses, demand, specialPrice
+    private final int[] tradeState;
+
+    public final long timestamp;
+    public final long stateStamp;
+    public final int weight;
+
+    private CompactSnapshot(VillagerSnapshot s, int weight) {
+        int pid = KeyTable.PROFESSIONS.idOf(s.profession);
+        int tid = KeyTable.TYPES.idOf(s.type);
+        this.professionId = (short) pid;
+        this.typeId = (short) tid;
+        this.professionKey = pid == KeyTable.INLINE ? s.profession : null;
+        this.typeKey = tid == KeyTable.INLINE ? s.type : null;
+
+        int f = 0;
+        if (s.adult) f |= ADULT;
+        if (s.ageLock) f |= AGE_LOCK;
+        if (s.captured) f |= CAPTURED;
+        if (s.owner != null) f |= OWNER;
+        if (s.recipes != null) f |= RECIPES;
+        this.flags = f;
+
+        this.level = s.level;
+        this.experience = s.experience;
+        this.age = s.age;
+        this.health = s.health;
+        this.maxHealth = s.maxHealth;
+        this.customDiscount = s.customDiscount;
+        this.ownerMost = s.owner != null ? s.owner.getMostSignificantBits() : 0L;
+        this.ownerLeast = s.owner != null ? s.owner.getLeastSignificantBits() : 0L;
+        this.customName = s.customName;
+        // 来源只有少数几种取值，共用同一个字符串实例
+        this.creationSource = s.creationSource != null ? s.creationSource.intern() : null;
+
+        this.payload = s.encoded;
+        if (s.encoded == null && s.recipes != null) {
+            int n = s.recipes.size();
+            this.templates = new TradeTemplate[n];
+            this.tradeState = new int[n * 3];
+            for (int i = 0; i < n; i++) {
+                MerchantRecipeData r = s.recipes.get(i);
+                templates[i] = TradeTemplate.of(r);
+                tradeState[i * 3] = r.uses;
+                tradeState[i * 3 + 1] = r.demand;
+                tradeState[i * 3 + 2] = r.specialPrice;
+            }
+        } else {
+            this.templates = null;
+            this.tradeState = null;
+        }
+
+        this.timestamp = s.timestamp;
+        this.stateStamp = s.stateStamp;
+        this.weight = weight;
+    }
+
+    public static CompactSnapshot of(VillagerSnapshot s, int weight) {
+        return new CompactSnapshot(s, weight);
+    }
+
+    // 每次调用都返回新的对象，调用方可以自由修改
+    public VillagerSnapshot toSnapshot() {
+        VillagerSnapshot s;
+        if (payload != null) {
+            s = SnapshotCodec.decode(payload);
+            s.encoded = payload;
+        } else {
+            s = new VillagerSnapshot();
+            s.profession = professionKey != null ? professionKey : KeyTable.PROFESSIONS.keyOf(professionId);
+            s.type = typeKey != null ? typeKey : KeyTable.TYPES.keyOf(typeId);
+            s.level = level;
+            s.experience = experience;
+            s.adult = (flags & ADULT) != 0;
+            s.ageLock = (flags & AGE_LOCK) != 0;
+            s.captured = (flags & CAPTURED) != 0;
+            s.age = age;
+            s.health = health;
+            s.maxHealth = maxHealth;
+            s.customName = customName;
+            s.owner = (flags & OWNER) != 0 ? new UUID(ownerMost, ownerLeast) : null;
+            s.customDiscount = customDiscount;
+            s.creationSource = creationSource;
+            if ((flags & RECIPES) != 0) {
+                s.recipes = new ArrayList<>(templates.length);
+                for (int i = 0; i < templates.length; i++) {
+                    s.recipes.add(templates[i].toRecipe(tradeState[i * 3], tradeState[i * 3 + 1], tradeState[i * 3 + 2]));
+                }
+            }
+        }
+        s.timestamp = timestamp;
+        s.stateStamp = stateStamp;
+        return s;
+    }
+}
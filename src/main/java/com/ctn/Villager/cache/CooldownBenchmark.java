@@ -0,0 +1,118 @@
+package com.ctn.Villager.cache;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// 释放冷却基准：模拟玩家连续点击，对比原先的字符串键 + ConcurrentHashMap<Long> 与 CooldownTable 的吞吐量和每次分配的字节数。
+// 由 /villagerbucket bench cooldown 在异步线程调用
+public final class CooldownBenchmark {
+
+    private static final int PLAYERS_PER_THREAD = 64;
+    private static final long COOLDOWN = 800L;
+
+    private interface Probe {
+        boolean pass(UUID player, long playerKey, String worldName, UUID world, int x, int y, int z, long now);
+    }
+
+    private CooldownBenchmark() {}
+
+    public static List<String> run(int threads, long millisPerRun, int stripes) throws InterruptedException {
+        Map<UUID, Long> byPlayer = new ConcurrentHashMap<>();
+        Map<String, Long> bySpot = new ConcurrentHashMap<>();
+        Probe maps = (player, playerKey, worldName, world, x, y, z, now) -> {
+            Long last = byPlayer.get(player);
+            if (last != null && now - last < COOLDOWN) return false;
+            String spot = player + ":" + worldName + ":" + x + "," + y + "," + z;
+            Long lastSpot = bySpot.get(spot);
+            if (lastSpot != null && now - lastSpot < COOLDOWN) return false;
+            byPlayer.put(player, now);
+            bySpot.put(spot, now);
+            return true;
+        };
+        CooldownTable table = new CooldownTable(stripes);
+        Probe packed = (player, playerKey, worldName, world, x, y, z, now) ->
+                table.tryAcquireBoth(playerKey, CooldownTable.spotKey(playerKey, world, x, y, z), now, COOLDOWN);
+
+        long[] mapResult = measure(maps, threads, millisPerRun);
+        long[] tableResult = measure(packed, threads, millisPerRun);
+
+        List<String> out = new ArrayList<>();
+        out.add("释放冷却测试: " + threads + " 个线程, 每轮 " + millisPerRun + " ms, 每线程 " + PLAYERS_PER_THREAD + " 名玩家");
+        out.add(line("ConcurrentHashMap", mapResult, millisPerRun));
+        out.add(line(stripes + " 条带 CooldownTable", tableResult, millisPerRun));
+        out.add(String.format("吞吐量对比: %.2fx", mapResult[0] > 0 ? (double) tableResult[0] / mapResult[0] : 0.0));
+        return out;
+    }
+
+    private static String line(String name, long[] r, long millis) {
+        String alloc = r[1] >= 0 ? String.format("%.1f 字节/次", r[0] > 0 ? (double) r[1] / r[0] : 0.0) : "分配未知";
+        return String.format("%s: %,d 次/秒, %s", name, r[0] * 1000L / millis, alloc);
+    }
+
+    // 返回 {操作次数, 分配字节数}；JVM 不支持线程分配统计时字节数为 -1
+    private static long[] measure(Probe probe, int threads, long millis) throws InterruptedException {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        final com.sun.management.ThreadMXBean alloc = mx instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) mx).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) mx : null;
+
+        UUID world = UUID.randomUUID();
+        String worldName = "world";
+        LongAdder ops = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        UUID[][] playerSets = new UUID[threads][PLAYERS_PER_THREAD];
+        long[][] keySets = new long[threads][PLAYERS_PER_THREAD];
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < PLAYERS_PER_THREAD; i++) {
+                playerSets[t][i] = UUID.randomUUID();
+                keySets[t][i] = CooldownTable.playerKey(playerSets[t][i]);
+            }
+        }
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+
+        for (int t = 0; t < threads; t++) {
+            final UUID[] players = playerSets[t];
+            final long[] keys = keySets[t];
+            final int baseX = t * 4096;
+
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    long before = alloc != null ? alloc.getThreadAllocatedBytes(Thread.currentThread().threadId()) : 0L;
+                    long n = 0;
+                    // 用递增的虚拟时钟，让冷却既有命中也有到期
+                    long now = 0;
+                    while ((n & 255) != 0 || System.nanoTime() < deadline) {
+                        int p = rnd.nextInt(players.length);
+                        probe.pass(players[p], keys[p], worldName, world,
+                                baseX + rnd.nextInt(16), 64 + rnd.nextInt(4), rnd.nextInt(16), now);
+                        if ((++n & 63) == 0) now += 10;
+                    }
+                    if (alloc != null) bytes.add(alloc.getThreadAllocatedBytes(Thread.currentThread().threadId()) - before);
+                    ops.add(n);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "VillagerBucket-Bench-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        start.countDown();
+        done.await();
+        return new long[]{ops.sum(), alloc != null ? bytes.sum() : -1L};
+    }
+}
@@ -0,0 +1,162 @@
+package com.ctn.Villager.cache;
+
+import java.util.UUID;
+
+// 以 long 为键的冷却表：按键哈希分成多个条带，每个条带是一对线性探测的 long 数组（键、截止时间），
+// 只锁住单个条带。查询和登记都不分配对象；过期的槽位在登记时直接复用，装载过高时才整理一次
+public final class CooldownTable {
+
+    private static final long EMPTY = 0L;
+    private static final int MIN_CAPACITY = 64;
+
+    private static final class Stripe {
+        long[] keys;
+        long[] deadlines;
+        int used;
+
+        Stripe(int capacity) {
+            keys = new long[capacity];
+            deadlines = new long[capacity];
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    public CooldownTable(int stripeCount) {
+        int n = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+        this.stripes = new Stripe[n];
+        this.stripeMask = n - 1;
+        for (int i = 0; i < n; i++) stripes[i] = new Stripe(MIN_CAPACITY);
+    }
+
+    // 截止时间未到返回 false；否则登记新的截止时间 now + cooldown 并返回 true
+    public boolean tryAcquire(long key, long now, long cooldownMillis) {
+        if (key == EMPTY) key = 1L;
+        int h = mix(key);
+        Stripe s = stripes[h & stripeMask];
+        synchronized (s) {
+            long[] keys = s.keys;
+            int mask = keys.length - 1;
+            int reuse = -1;
+            int i = (h >>> 8) & mask;
+            while (true) {
+                long k = keys[i];
+                if (k == key) {
+                    if (s.deadlines[i] > now) return false;
+                    s.deadlines[i] = now + cooldownMillis;
+                    return true;
+                }
+                if (k == EMPTY) break;
+                if (reuse < 0 && s.deadlines[i] <= now) reuse = i;
+                i = (i + 1) & mask;
+            }
+            if (reuse >= 0) {
+                keys[reuse] = key;
+                s.deadlines[reuse] = now + cooldownMillis;
+                return true;
+            }
+            keys[i] = key;
+            s.deadlines[i] = now + cooldownMillis;
+            if (++s.used * 4 > keys.length * 3) rebuild(s, now);
+            return true;
+        }
+    }
+
+    // 同时检查两个键，两者都不在冷却中才一起登记
+    public boolean tryAcquireBoth(long first, long second, long now, long cooldownMillis) {
+        if (isCooling(first, now) || isCooling(second, now)) return false;
+        if (!tryAcquire(first, now, cooldownMillis)) return false;
+        tryAcquire(second, now, cooldownMillis);
+        return true;
+    }
+
+    public boolean isCooling(long key, long now) {
+        if (key == EMPTY) key = 1L;
+        int h = mix(key);
+        Stripe s = stripes[h & stripeMask];
+        synchronized (s) {
+            long[] keys = s.keys;
+            int mask = keys.length - 1;
+            int i = (h >>> 8) & mask;
+            while (true) {
+                long k = keys[i];
+                if (k == key) return s.deadlines[i] > now;
+                if (k == EMPTY) return false;
+                i = (i + 1) & mask;
+            }
+        }
+    }
+
+    // 丢弃已过期的条目，存活条目较多时扩容，较少时收缩
+    private static void rebuild(Stripe s, long now) {
+        long[] oldKeys = s.keys;
+        long[] oldDeadlines = s.deadlines;
+        int live = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY && oldDeadlines[i] > now) live++;
+        }
+        int capacity = MIN_CAPACITY;
+        while (capacity < live * 4) capacity <<= 1;
+        long[] keys = new long[capacity];
+        long[] deadlines = new long[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k == EMPTY || oldDeadlines[j] <= now) continue;
+            int i = (mix(k) >>> 8) & mask;
+            while (keys[i] != EMPTY) i = (i + 1) & mask;
+            keys[i] = k;
+            deadlines[i] = oldDeadlines[j];
+        }
+        s.keys = keys;
+        s.deadlines = deadlines;
+        s.used = live;
+    }
+
+    public void clear() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.keys = new long[MIN_CAPACITY];
+                s.deadlines = new long[MIN_CAPACITY];
+                s.used = 0;
+            }
+        }
+    }
+
+    public int size(long now) {
+        int n = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                for (int i = 0; i < s.keys.length; i++) {
+                    if (s.keys[i] != EMPTY && s.deadlines[i] > now) n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    public static long playerKey(UUID player) {
+        return mix64(player.getMostSignificantBits() ^ Long.rotateLeft(player.getLeastSignificantBits(), 32));
+    }
+
+    // 坐标按原版 BlockPos 的方式打包：x、z 各 26 位，y 12 位
+    public static long packBlock(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFFL);
+    }
+
+    public static long spotKey(long playerKey, UUID world, int x, int y, int z) {
+        long w = world.getMostSignificantBits() * 31 + world.getLeastSignificantBits();
+        return mix64(playerKey * 0x9E3779B97F4A7C15L + w) ^ mix64(packBlock(x, y, z));
+    }
+
+    private static int mix(long key) {
+        return (int) (mix64(key) >>> 32);
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,86 @@
+package com.ctn.Villager.cache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+// 按内容去重的弱引用驻留池：相同内容只保留一个规范实例，没有快照再引用时由 GC 自动回收。
+// 基于 ConcurrentHashMap，各区域线程驻留时不争同一把锁；被回收的条目经 ReferenceQueue 在下次驻留时清除。
+// 放入的对象必须不可变，并按内容实现 equals/hashCode
+public final class InternPool<T> {
+
+    // 以引用对象本身作键，按所指内容比较；被回收后只与自身相等，便于按引用移除
+    private static final class Ref<T> extends WeakReference<T> {
+        final int hash;
+
+        Ref(T value, ReferenceQueue<T> queue) {
+            super(value, queue);
+            this.hash = value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Ref<?> other) || hash != other.hash) return false;
+            Object a = get();
+            return a != null && a.equals(other.get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final ConcurrentHashMap<Ref<T>, Ref<T>> pool = new ConcurrentHashMap<>();
+    private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+    private final ToIntFunction<T> sizer;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder savedBytes = new LongAdder();
+
+    public InternPool(ToIntFunction<T> sizer) {
+        this.sizer = sizer;
+    }
+
+    public T intern(T value) {
+        requests.increment();
+        expunge();
+        Ref<T> fresh = new Ref<>(value, queue);
+        while (true) {
+            Ref<T> existing = pool.putIfAbsent(fresh, fresh);
+            if (existing == null) return value;
+            T canonical = existing.get();
+            if (canonical != null) {
+                hits.increment();
+                savedBytes.add(sizer.applyAsInt(value));
+                return canonical;
+            }
+            // 比较之后刚被回收，移除后重试
+            pool.remove(existing, existing);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expunge() {
+        Ref<T> ref;
+        while ((ref = (Ref<T>) queue.poll()) != null) pool.remove(ref, ref);
+    }
+
+    public int size() {
+        expunge();
+        return pool.size();
+    }
+
+    public long getRequests() { return requests.sum(); }
+    public long getHits() { return hits.sum(); }
+    public long getSavedBytes() { return savedBytes.sum(); }
+
+    // 去重率：驻留请求中命中已有实例的比例
+    public double getDedupRatio() {
+        long r = getRequests();
+        return r == 0 ? 0.0 : (double) getHits() / r;
+    }
+}
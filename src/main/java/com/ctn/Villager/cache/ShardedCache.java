@@ -0,0 +1,136 @@
+package com.ctn.Villager.cache;
+
+import com.ctn.Villager.scheduler.TimingWheel;
+
+import java.util.UUID;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+// 按世界和区块条带分片的缓存：每个分片是独立加锁、独立淘汰的 WeightedCache，
+// 读写都由调用方给出的条带位置直接定位分片，没有全局共享的结构，不同区域的线程互不竞争。
+// 条目跨条带移动时由调用方在旧位置上 remove；漏删的旧条目只占用权重，直到被淘汰或过期
+public class ShardedCache<K, V> {
+
+    // 32x32 区块为一个条带，与 Folia 区域的粒度大致相当
+    private static final int STRIPE_SHIFT = 5;
+
+    private final WeightedCache<K, V>[] shards;
+
+    @SuppressWarnings("unchecked")
+    public ShardedCache(int shardCount, long maxWeight, ToIntFunction<V> weigher) {
+        int n = Math.max(1, shardCount);
+        this.shards = new WeightedCache[n];
+        for (int i = 0; i < n; i++) shards[i] = new WeightedCache<>(Math.max(1, maxWeight / n), weigher);
+    }
+
+    public static int placement(UUID worldId, int chunkX, int chunkZ) {
+        int h = worldId.hashCode();
+        h = h * 31 + (chunkX >> STRIPE_SHIFT);
+        h = h * 31 + (chunkZ >> STRIPE_SHIFT);
+        return h;
+    }
+
+    private int shardOf(int placement) {
+        int h = placement * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % shards.length;
+    }
+
+    public void put(K key, int placement, V value) {
+        shards[shardOf(placement)].put(key, value);
+    }
+
+    public V get(K key, int placement) {
+        return shards[shardOf(placement)].get(key);
+    }
+
+    public V peek(K key, int placement) {
+        return shards[shardOf(placement)].peek(key);
+    }
+
+    public V remove(K key, int placement) {
+        return shards[shardOf(placement)].remove(key);
+    }
+
+    // 逐个分片清理，每次只锁住一个分片
+    public int removeIf(BiPredicate<K, V> filter) {
+        int removed = 0;
+        for (WeightedCache<K, V> shard : shards) removed += shard.removeIf(filter);
+        return removed;
+    }
+
+    public void setExpiry(TimingWheel wheel, long expireAfterWriteMillis) {
+        for (WeightedCache<K, V> shard : shards) shard.setExpiry(wheel, expireAfterWriteMillis);
+    }
+
+    public void setMaxWeight(long maxWeight) {
+        for (WeightedCache<K, V> shard : shards) shard.setMaxWeight(Math.max(1, maxWeight / shards.length));
+    }
+
+    public void clear() {
+        for (WeightedCache<K, V> shard : shards) shard.clear();
+    }
+
+    public int getShardCount() { return shards.length; }
+
+    public int size() {
+        int n = 0;
+        for (WeightedCache<K, V> shard : shards) n += shard.size();
+        return n;
+    }
+
+    public long weight() {
+        long w = 0;
+        for (WeightedCache<K, V> shard : shards) w += shard.weight();
+        return w;
+    }
+
+    public long getMaxWeight() {
+        long w = 0;
+        for (WeightedCache<K, V> shard : shards) w += shard.getMaxWeight();
+        return w;
+    }
+
+    public long getHits() {
+        long n = 0;
+        for (WeightedCache<K, V> shard : shards) n += shard.getHits();
+        return n;
+    }
+
+    public long getMisses() {
+        long n = 0;
+        for (WeightedCache<K, V> shard : shards) n += shard.getMisses();
+        return n;
+    }
+
+    public long getEvictions() {
+        long n = 0;
+        for (WeightedCache<K, V> shard : shards) n += shard.getEvictions();
+        return n;
+    }
+
+    public long getRejections() {
+        long n = 0;
+        for (WeightedCache<K, V> shard : shards) n += shard.getRejections();
+        return n;
+    }
+
+    public long getExpirations() {
+        long n = 0;
+        for (WeightedCache<K, V> shard : shards) n += shard.getExpirations();
+        return n;
+    }
+
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public String describe() {
+        int busiest = 0;
+        for (WeightedCache<K, V> shard : shards) busiest = Math.max(busiest, shard.size());
+        return String.format("村民缓存: %d 条, 权重 %d/%d, %d 个分片 (最多 %d 条), 命中率 %.1f%% (命中 %d, 未命中 %d), 淘汰 %d, 拒绝 %d, 过期 %d",
+                size(), weight(), getMaxWeight(), shards.length, busiest, getHitRate() * 100.0,
+                getHits(), getMisses(), getEvictions(), getRejections(), getExpirations());
+    }
+}
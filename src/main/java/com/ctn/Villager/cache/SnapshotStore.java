@@ -0,0 +1,394 @@
+package com.ctn.Villager.cache;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+// 村民快照磁盘存储：只追加的日志文件 + 内存映射的开放寻址索引，按村民 UUID 查找，索引不占用堆内存。
+// 日志中每条记录都指向同一村民的上一条记录，压缩时为每个村民保留最近几个版本，用于恢复和审计。
+// 所有方法在同一把锁内执行，调用方应在异步线程使用
+public final class SnapshotStore implements Closeable {
+
+    private static final int LOG_MAGIC = 0x56424C47;   // "VBLG"
+    private static final int INDEX_MAGIC = 0x56424958; // "VBIX"
+    private static final int VERSION = 1;
+    private static final int LOG_HEADER = 8;
+    // 记录头: msb, lsb, 上一条记录位置, 时间戳, 长度, CRC32C
+    private static final int RECORD_HEADER = 40;
+    private static final int MAX_PAYLOAD = 1 << 20;
+
+    // 索引头: magic, version, 容量, 条目数, 日志末尾, 正常关闭标记
+    private static final int INDEX_HEADER = 32;
+    // 索引槽: msb, lsb, 最新记录位置(0 表示空槽), 最新记录长度, 版本数
+    private static final int SLOT = 32;
+    private static final int MIN_CAPACITY = 4096;
+
+    private final Logger logger;
+    private final Path logPath;
+    private final Path indexPath;
+    private FileChannel log;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private long logEnd;
+    private long liveBytes;
+    private long compactedSize;
+    private long compactions;
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_HEADER + 1024);
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(RECORD_HEADER);
+
+    private SnapshotStore(File dir, Logger logger) {
+        this.logger = logger;
+        this.logPath = new File(dir, "snapshots.log").toPath();
+        this.indexPath = new File(dir, "snapshots.idx").toPath();
+    }
+
+    // 打开存储；索引未正常关闭或与日志不一致时，扫描日志重建索引（热启动）
+    public static SnapshotStore open(File dir, Logger logger) throws IOException {
+        Files.createDirectories(dir.toPath());
+        SnapshotStore store = new SnapshotStore(dir, logger);
+        store.openFiles();
+        return store;
+    }
+
+    private void openFiles() throws IOException {
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (log.size() < LOG_HEADER) {
+            ByteBuffer h = ByteBuffer.allocate(LOG_HEADER).putInt(LOG_MAGIC).putInt(VERSION);
+            h.flip();
+            log.truncate(0);
+            writeFully(log, h, 0);
+        } else {
+            ByteBuffer h = ByteBuffer.allocate(LOG_HEADER);
+            readFully(log, h, 0);
+            if (h.getInt(0) != LOG_MAGIC || h.getInt(4) != VERSION) {
+                throw new IOException("村民快照日志格式不正确: " + logPath);
+            }
+        }
+
+        indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean reusable = false;
+        if (indexChannel.size() >= INDEX_HEADER) {
+            ByteBuffer h = ByteBuffer.allocate(INDEX_HEADER);
+            readFully(indexChannel, h, 0);
+            int cap = h.getInt(8);
+            reusable = h.getInt(0) == INDEX_MAGIC && h.getInt(4) == VERSION
+                    && h.getInt(28) == 1 && h.getLong(16) == log.size()
+                    && cap >= MIN_CAPACITY && Integer.bitCount(cap) == 1
+                    && indexChannel.size() >= INDEX_HEADER + (long) cap * SLOT;
+            if (reusable) {
+                map(cap);
+                count = index.getInt(12);
+                logEnd = index.getLong(16);
+                for (int i = 0; i < capacity; i++) {
+                    if (slotOffset(i) != 0) liveBytes += RECORD_HEADER + slotLength(i);
+                }
+            }
+        }
+        if (!reusable) rebuildIndex();
+
+        compactedSize = logEnd;
+        // 运行期间标记为未正常关闭，崩溃后下次启动会重建索引
+        index.putInt(28, 0);
+        index.force();
+        logger.info("村民快照存储已加载: " + count + " 个村民, 日志 " + (logEnd >> 10) + " KB" + (reusable ? "" : " (已重建索引)"));
+    }
+
+    // 扩容时旧的映射没有公开的释放接口，只能等 GC 回收；容量按倍数增长，残留的旧映射总大小不超过当前映射
+    private void map(int cap) throws IOException {
+        capacity = cap;
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) cap * SLOT);
+    }
+
+    private void rebuildIndex() throws IOException {
+        map(MIN_CAPACITY);
+        clearIndex();
+        count = 0;
+        liveBytes = 0;
+
+        long size = log.size();
+        long pos = LOG_HEADER;
+        while (pos + RECORD_HEADER <= size) {
+            headerBuffer.clear();
+            readFully(log, headerBuffer, pos);
+            long msb = headerBuffer.getLong(0);
+            long lsb = headerBuffer.getLong(8);
+            int length = headerBuffer.getInt(32);
+            if (length < 0 || length > MAX_PAYLOAD || pos + RECORD_HEADER + length > size) break;
+            byte[] payload = new byte[length];
+            readFully(log, ByteBuffer.wrap(payload), pos + RECORD_HEADER);
+            if (checksum(payload) != headerBuffer.getInt(36)) break;
+            indexRecord(msb, lsb, pos, length);
+            pos += RECORD_HEADER + length;
+        }
+        // 截掉写到一半的尾部记录
+        if (pos < size) {
+            logger.warning("村民快照日志尾部有 " + (size - pos) + " 字节不完整数据，已截断");
+            log.truncate(pos);
+        }
+        logEnd = pos;
+        writeIndexHeader();
+    }
+
+    private void clearIndex() {
+        for (int i = 0; i < INDEX_HEADER + capacity * SLOT; i += 8) index.putLong(i, 0L);
+    }
+
+    private void writeIndexHeader() {
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, VERSION);
+        index.putInt(8, capacity);
+        index.putInt(12, count);
+        index.putLong(16, logEnd);
+    }
+
+    public synchronized void put(UUID id, byte[] payload, long timestamp) throws IOException {
+        if (log == null || payload == null || payload.length == 0 || payload.length > MAX_PAYLOAD) return;
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int slot = findSlot(msb, lsb);
+        long prev = slot >= 0 ? slotOffset(slot) : 0L;
+
+        int total = RECORD_HEADER + payload.length;
+        if (recordBuffer.capacity() < total) recordBuffer = ByteBuffer.allocate(Math.max(total, recordBuffer.capacity() * 2));
+        recordBuffer.clear();
+        recordBuffer.putLong(msb).putLong(lsb).putLong(prev).putLong(timestamp)
+                .putInt(payload.length).putInt(checksum(payload)).put(payload);
+        recordBuffer.flip();
+        writeFully(log, recordBuffer, logEnd);
+
+        indexRecord(msb, lsb, logEnd, payload.length);
+        logEnd += total;
+        writeIndexHeader();
+    }
+
+    private void indexRecord(long msb, long lsb, long offset, int length) throws IOException {
+        int slot = findSlot(msb, lsb);
+        if (slot >= 0) {
+            liveBytes -= RECORD_HEADER + slotLength(slot);
+            index.putLong(slotBase(slot) + 16, offset);
+            index.putInt(slotBase(slot) + 24, length);
+            index.putInt(slotBase(slot) + 28, index.getInt(slotBase(slot) + 28) + 1);
+        } else {
+            if ((count + 1) * 10L > capacity * 7L) grow();
+            slot = emptySlotFor(msb, lsb);
+            int base = slotBase(slot);
+            index.putLong(base, msb);
+            index.putLong(base + 8, lsb);
+            index.putLong(base + 16, offset);
+            index.putInt(base + 24, length);
+            index.putInt(base + 28, 1);
+            count++;
+        }
+        liveBytes += RECORD_HEADER + length;
+    }
+
+    // 扩容时先把现有槽位读到堆上，再扩大映射并重新散列
+    private void grow() throws IOException {
+        long[] keys = new long[count * 2];
+        long[] offsets = new long[count];
+        int[] meta = new int[count * 2];
+        int n = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (slotOffset(i) == 0) continue;
+            int base = slotBase(i);
+            keys[n * 2] = index.getLong(base);
+            keys[n * 2 + 1] = index.getLong(base + 8);
+            offsets[n] = index.getLong(base + 16);
+            meta[n * 2] = index.getInt(base + 24);
+            meta[n * 2 + 1] = index.getInt(base + 28);
+            n++;
+        }
+        map(capacity * 2);
+        clearIndex();
+        for (int k = 0; k < n; k++) {
+            int base = slotBase(emptySlotFor(keys[k * 2], keys[k * 2 + 1]));
+            index.putLong(base, keys[k * 2]);
+            index.putLong(base + 8, keys[k * 2 + 1]);
+            index.putLong(base + 16, offsets[k]);
+            index.putInt(base + 24, meta[k * 2]);
+            index.putInt(base + 28, meta[k * 2 + 1]);
+        }
+        writeIndexHeader();
+    }
+
+    public synchronized byte[] get(UUID id) throws IOException {
+        int slot = findSlot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        return slot >= 0 ? readPayload(slotOffset(slot)) : null;
+    }
+
+    // 从新到旧返回该村民保存过的快照
+    public synchronized List<byte[]> history(UUID id, int limit) throws IOException {
+        List<byte[]> out = new ArrayList<>();
+        int slot = findSlot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        long offset = slot >= 0 ? slotOffset(slot) : 0L;
+        while (offset != 0 && out.size() < limit) {
+            out.add(readPayload(offset));
+            offset = headerBuffer.getLong(16);
+        }
+        return out;
+    }
+
+    private byte[] readPayload(long offset) throws IOException {
+        headerBuffer.clear();
+        readFully(log, headerBuffer, offset);
+        int length = headerBuffer.getInt(32);
+        if (length < 0 || length > MAX_PAYLOAD) throw new IOException("村民快照记录损坏: " + offset);
+        byte[] payload = new byte[length];
+        readFully(log, ByteBuffer.wrap(payload), offset + RECORD_HEADER);
+        if (checksum(payload) != headerBuffer.getInt(36)) throw new IOException("村民快照记录校验失败: " + offset);
+        return payload;
+    }
+
+    // 日志超过下限且比上次压缩后增长了一倍以上时才需要压缩
+    public synchronized boolean needsCompaction(long minBytes) {
+        return logEnd >= minBytes && logEnd >= compactedSize * 2;
+    }
+
+    // 把每个村民最近 keepHistory 个版本复制到新日志，再原子替换旧日志
+    public synchronized void compact(int keepHistory) throws IOException {
+        int keep = Math.max(1, keepHistory);
+        Path tmpPath = logPath.resolveSibling("snapshots.log.compact");
+        long[] newOffsets = new long[capacity];
+        int[] newVersions = new int[capacity];
+        long newLive = 0;
+        long newEnd;
+
+        try (FileChannel out = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer h = ByteBuffer.allocate(LOG_HEADER).putInt(LOG_MAGIC).putInt(VERSION);
+            h.flip();
+            long pos = writeFully(out, h, 0);
+
+            long[] chain = new long[keep];
+            for (int i = 0; i < capacity; i++) {
+                long offset = slotOffset(i);
+                if (offset == 0) continue;
+                int n = 0;
+                while (offset != 0 && n < keep) {
+                    chain[n++] = offset;
+                    headerBuffer.clear();
+                    readFully(log, headerBuffer, offset);
+                    offset = headerBuffer.getLong(16);
+                }
+                // 从旧到新写入，让每条记录的上一条指针指向新日志中的位置
+                long prev = 0;
+                for (int k = n - 1; k >= 0; k--) {
+                    byte[] payload = readPayload(chain[k]);
+                    int total = RECORD_HEADER + payload.length;
+                    if (recordBuffer.capacity() < total) recordBuffer = ByteBuffer.allocate(total);
+                    recordBuffer.clear();
+                    recordBuffer.putLong(headerBuffer.getLong(0)).putLong(headerBuffer.getLong(8)).putLong(prev)
+                            .putLong(headerBuffer.getLong(24)).putInt(payload.length).putInt(headerBuffer.getInt(36)).put(payload);
+                    recordBuffer.flip();
+                    prev = pos;
+                    pos = writeFully(out, recordBuffer, pos);
+                    if (k == 0) newLive += total;
+                }
+                newOffsets[i] = prev;
+                newVersions[i] = n;
+            }
+            out.force(true);
+            newEnd = pos;
+        }
+
+        long before = log.size();
+        log.close();
+        Files.move(tmpPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logEnd = newEnd;
+
+        for (int i = 0; i < capacity; i++) {
+            if (newOffsets[i] == 0) continue;
+            index.putLong(slotBase(i) + 16, newOffsets[i]);
+            index.putInt(slotBase(i) + 28, newVersions[i]);
+        }
+        liveBytes = newLive;
+        compactedSize = logEnd;
+        compactions++;
+        writeIndexHeader();
+        index.force();
+        logger.info("村民快照日志已压缩: " + (before >> 10) + " KB -> " + (logEnd >> 10) + " KB");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (log == null) return;
+        log.force(true);
+        writeIndexHeader();
+        index.putInt(28, 1);
+        index.force();
+        log.close();
+        indexChannel.close();
+        log = null;
+    }
+
+    private int findSlot(long msb, long lsb) {
+        int mask = capacity - 1;
+        for (int i = spread(msb, lsb) & mask; ; i = (i + 1) & mask) {
+            if (slotOffset(i) == 0) return -1;
+            int base = slotBase(i);
+            if (index.getLong(base) == msb && index.getLong(base + 8) == lsb) return i;
+        }
+    }
+
+    private int emptySlotFor(long msb, long lsb) {
+        int mask = capacity - 1;
+        int i = spread(msb, lsb) & mask;
+        while (slotOffset(i) != 0) i = (i + 1) & mask;
+        return i;
+    }
+
+    private int slotBase(int slot) { return INDEX_HEADER + slot * SLOT; }
+    private long slotOffset(int slot) { return index.getLong(slotBase(slot) + 16); }
+    private int slotLength(int slot) { return index.getInt(slotBase(slot) + 24); }
+
+    private static int spread(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static long writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) pos += ch.write(buf, pos);
+        return pos;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int r = ch.read(buf, pos);
+            if (r < 0) throw new EOFException("村民快照文件意外结束");
+            pos += r;
+        }
+    }
+
+    public synchronized int size() { return count; }
+    public synchronized long getLogBytes() { return logEnd; }
+    public synchronized long getLiveBytes() { return liveBytes; }
+
+    public synchronized String describe() {
+        return String.format("快照存储: %d 个村民, 日志 %d KB (最新版本 %d KB), 索引 %d KB 堆外映射, 已压缩 %d 次",
+                count, logEnd >> 10, liveBytes >> 10, ((long) INDEX_HEADER + (long) capacity * SLOT) >> 10, compactions);
+    }
+}
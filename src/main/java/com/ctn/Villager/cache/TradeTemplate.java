@@ -0,0 +1,53 @@
+package com.ctn.Villager.cache;
+
+import com.ctn.Villager.VillagerManager.MerchantRecipeData;
+import com.ctn.Villager.codec.SnapshotCodec;
+
+import java.util.Arrays;
+
+// 不可变的交易模板，内容为编码后的物品和交易参数，经全局驻留池去重后由多个缓存快照共享。
+// 保存编码字节而不是解码后的对象：ItemData 可变且没有按内容的 equals，字节既天然不可变又能直接比较和计重，
+// 占用也只有对象图的几分之一；只在缓存快照没有完整数据、需要还原时解码，每次捕获至多一次
+public final class TradeTemplate {
+
+    private static final InternPool<TradeTemplate> POOL = new InternPool<>(t -> 16 + t.data.length);
+
+    private final byte[] data;
+    private final int hash;
+
+    private TradeTemplate(byte[] data) {
+        this.data = data;
+        this.hash = Arrays.hashCode(data);
+    }
+
+    public static TradeTemplate of(MerchantRecipeData r) {
+        return POOL.intern(new TradeTemplate(SnapshotCodec.encodeTemplate(r)));
+    }
+
+    public MerchantRecipeData toRecipe(int uses, int demand, int specialPrice) {
+        MerchantRecipeData r = SnapshotCodec.decodeTemplate(data);
+        r.uses = uses;
+        r.demand = demand;
+        r.specialPrice = specialPrice;
+        return r;
+    }
+
+    public int size() {
+        return data.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TradeTemplate t && hash == t.hash && Arrays.equals(data, t.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    public static String describePool() {
+        return String.format("交易模板池: %d 个模板, 去重率 %.1f%% (%d/%d), 累计节省约 %d KB",
+                POOL.size(), POOL.getDedupRatio() * 100.0, POOL.getHits(), POOL.getRequests(), POOL.getSavedBytes() >> 10);
+    }
+}
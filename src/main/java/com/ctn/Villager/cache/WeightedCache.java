@@ -0,0 +1,293 @@
+package com.ctn.Villager.cache;
+
+import com.ctn.Villager.scheduler.TimingWheel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+// 按权重限容的缓存，采用简化的 W-TinyLFU：
+// 新条目先进入约占 1% 容量的窗口 LRU，被挤出窗口时与主区 LRU 队尾比较访问频率，频率更高者留下
+public class WeightedCache<K, V> {
+
+    private static final class Node<V> {
+        final V value;
+        final int weight;
+        TimingWheel.Timeout expiry;
+
+        Node(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, Node<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> main = new LinkedHashMap<>(256, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final ToIntFunction<V> weigher;
+    private TimingWheel expiryWheel;
+    private long expireAfterWriteMillis;
+
+    private long maxWeight;
+    private long windowMax;
+    private long windowWeight;
+    private long mainWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public WeightedCache(long maxWeight, ToIntFunction<V> weigher) {
+        this.weigher = weigher;
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, Math.max(64, maxWeight / 4)));
+        setMaxWeight(maxWeight);
+    }
+
+    // 写入后超过指定时间自动移除，到期由时间轮回调，不需要扫描整个缓存
+    public void setExpiry(TimingWheel wheel, long expireAfterWriteMillis) {
+        lock.lock();
+        try {
+            this.expiryWheel = wheel;
+            this.expireAfterWriteMillis = expireAfterWriteMillis;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void notifyEvicted(Node<V> node) {
+        evictions.increment();
+        cancelExpiry(node);
+    }
+
+    private static void cancelExpiry(Node<?> node) {
+        if (node != null && node.expiry != null) node.expiry.cancel();
+    }
+
+    private void expire(K key, Node<V> node) {
+        lock.lock();
+        try {
+            // 只移除登记时的那个条目，期间被替换过的新条目不受影响
+            if (window.get(key) == node) {
+                window.remove(key);
+                windowWeight -= node.weight;
+            } else if (main.get(key) == node) {
+                main.remove(key);
+                mainWeight -= node.weight;
+            } else {
+                return;
+            }
+            expirations.increment();
+            node.expiry = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setMaxWeight(long maxWeight) {
+        lock.lock();
+        try {
+            this.maxWeight = Math.max(1, maxWeight);
+            this.windowMax = Math.max(1, this.maxWeight / 100);
+            evictMain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public V get(K key) {
+        lock.lock();
+        try {
+            sketch.increment(key);
+            Node<V> n = window.get(key);
+            if (n == null) n = main.get(key);
+            if (n == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return n.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 只查看不计入命中统计和访问频率，供后台比较使用
+    public V peek(K key) {
+        lock.lock();
+        try {
+            Node<V> n = window.get(key);
+            if (n == null) n = main.get(key);
+            return n != null ? n.value : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        int weight = Math.max(1, weigher.applyAsInt(value));
+        lock.lock();
+        try {
+            sketch.increment(key);
+            removeLocked(key);
+            // 条目最终都要进入主区，超过主区容量的直接拒绝，不为它清空缓存
+            if (weight > maxWeight - windowMax) {
+                rejections.increment();
+                return;
+            }
+            Node<V> node = new Node<>(value, weight);
+            if (expiryWheel != null) node.expiry = expiryWheel.schedule(expireAfterWriteMillis, () -> expire(key, node));
+            // 比整个窗口区还大的条目跳过窗口直接参与准入，避免把窗口里的其他条目全部挤出
+            if (weight > windowMax) {
+                admit(key, node);
+                return;
+            }
+            window.put(key, node);
+            windowWeight += weight;
+            evictWindow();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public V remove(K key) {
+        lock.lock();
+        try {
+            Node<V> n = removeLocked(key);
+            return n != null ? n.value : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Node<V> removeLocked(K key) {
+        Node<V> n = window.remove(key);
+        if (n != null) {
+            windowWeight -= n.weight;
+        } else {
+            n = main.remove(key);
+            if (n != null) mainWeight -= n.weight;
+        }
+        if (n != null && n.expiry != null) n.expiry.cancel();
+        return n;
+    }
+
+    private void evictWindow() {
+        while (windowWeight > windowMax && !window.isEmpty()) {
+            Iterator<Map.Entry<K, Node<V>>> it = window.entrySet().iterator();
+            Map.Entry<K, Node<V>> candidate = it.next();
+            it.remove();
+            windowWeight -= candidate.getValue().weight;
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    // TinyLFU 准入：主区放不下时，候选者的频率必须高于主区队尾才能替换它
+    private void admit(K key, Node<V> node) {
+        long mainMax = maxWeight - windowMax;
+        // 容量被调小后窗口里可能留有超过主区容量的条目，直接淘汰
+        if (node.weight > mainMax) {
+            rejections.increment();
+            cancelExpiry(node);
+            return;
+        }
+        int candidateFreq = sketch.frequency(key);
+        while (mainWeight + node.weight > mainMax && !main.isEmpty()) {
+            Iterator<Map.Entry<K, Node<V>>> it = main.entrySet().iterator();
+            Map.Entry<K, Node<V>> victim = it.next();
+            if (candidateFreq <= sketch.frequency(victim.getKey())) {
+                notifyEvicted(node);
+                return;
+            }
+            it.remove();
+            mainWeight -= victim.getValue().weight;
+            notifyEvicted(victim.getValue());
+        }
+        main.put(key, node);
+        mainWeight += node.weight;
+    }
+
+    private void evictMain() {
+        long mainMax = maxWeight - windowMax;
+        Iterator<Map.Entry<K, Node<V>>> it = main.entrySet().iterator();
+        while (mainWeight > mainMax && it.hasNext()) {
+            Map.Entry<K, Node<V>> victim = it.next();
+            mainWeight -= victim.getValue().weight;
+            it.remove();
+            notifyEvicted(victim.getValue());
+        }
+        evictWindow();
+    }
+
+    public int removeIf(BiPredicate<K, V> filter) {
+        lock.lock();
+        try {
+            int removed = 0;
+            List<K> keys = new ArrayList<>();
+            for (Map.Entry<K, Node<V>> e : window.entrySet()) if (filter.test(e.getKey(), e.getValue().value)) keys.add(e.getKey());
+            for (Map.Entry<K, Node<V>> e : main.entrySet()) if (filter.test(e.getKey(), e.getValue().value)) keys.add(e.getKey());
+            for (K k : keys) if (removeLocked(k) != null) removed++;
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            for (Node<V> n : window.values()) if (n.expiry != null) n.expiry.cancel();
+            for (Node<V> n : main.values()) if (n.expiry != null) n.expiry.cancel();
+            window.clear();
+            main.clear();
+            windowWeight = 0;
+            mainWeight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return window.size() + main.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long weight() {
+        lock.lock();
+        try {
+            return windowWeight + mainWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxWeight() { return maxWeight; }
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+    public long getRejections() { return rejections.sum(); }
+    public long getExpirations() { return expirations.sum(); }
+
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public String describe() {
+        return String.format("村民缓存: %d 条, 权重 %d/%d, 命中率 %.1f%% (命中 %d, 未命中 %d), 淘汰 %d, 拒绝 %d, 过期 %d",
+                size(), weight(), getMaxWeight(), getHitRate() * 100.0, getHits(), getMisses(), getEvictions(), getRejections(), getExpirations());
+    }
+}
@@ -0,0 +1,76 @@
+package com.ctn.Villager.codec;
+
+import com.ctn.Villager.VillagerManager.VillagerSnapshot;
+
+import java.util.zip.CRC32C;
+
+// 村民桶的轻量头部，与交易数据分开存放：校验、防篡改和显示信息只需读这几个字节
+public final class BucketHeader {
+
+    public static final int HEADER_V1 = 1;
+
+    public final String profession;
+    public final String type;
+    public final int level;
+    public final int tradeCount;
+    public final int payloadLength;
+    public final int checksum;
+
+    private BucketHeader(String profession, String type, int level, int tradeCount, int payloadLength, int checksum) {
+        this.profession = profession;
+        this.type = type;
+        this.level = level;
+        this.tradeCount = tradeCount;
+        this.payloadLength = payloadLength;
+        this.checksum = checksum;
+    }
+
+    public static BucketHeader of(VillagerSnapshot s, byte[] payload) {
+        return new BucketHeader(s.profession, s.type, s.level,
+                s.recipes != null ? s.recipes.size() : 0, payload.length, checksum(payload));
+    }
+
+    public static int checksum(byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    // 长度和校验和都对得上，才认为数据未被篡改或截断
+    public boolean matches(byte[] payload) {
+        return payload != null && payload.length == payloadLength && checksum(payload) == checksum;
+    }
+
+    public boolean isComplete() {
+        return profession != null && type != null;
+    }
+
+    public byte[] encode() {
+        SnapshotWriter out = new SnapshotWriter(32);
+        out.writeByte(HEADER_V1);
+        KeyTable.PROFESSIONS.write(out, profession);
+        KeyTable.TYPES.write(out, type);
+        out.writeVarInt(Math.max(0, level));
+        out.writeVarInt(Math.max(0, tradeCount));
+        out.writeVarInt(payloadLength);
+        out.writeByte(checksum >>> 24);
+        out.writeByte(checksum >>> 16);
+        out.writeByte(checksum >>> 8);
+        out.writeByte(checksum);
+        return out.toByteArray();
+    }
+
+    public static BucketHeader decode(byte[] data) {
+        if (data == null || data.length == 0) throw new IllegalArgumentException("村民桶头部为空");
+        SnapshotReader in = new SnapshotReader(data);
+        int version = in.readByte();
+        if (version != HEADER_V1) throw new IllegalArgumentException("不支持的村民桶头部版本: " + version);
+        String profession = KeyTable.PROFESSIONS.read(in);
+        String type = KeyTable.TYPES.read(in);
+        int level = in.readVarInt();
+        int tradeCount = in.readVarInt();
+        int payloadLength = in.readVarInt();
+        int checksum = (in.readByte() << 24) | (in.readByte() << 16) | (in.readByte() << 8) | in.readByte();
+        return new BucketHeader(profession, type, level, tradeCount, payloadLength, checksum);
+    }
+}
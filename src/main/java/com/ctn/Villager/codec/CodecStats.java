@@ -0,0 +1,59 @@
+package com.ctn.Villager.codec;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// 村民桶编码体积统计，供 /villagerbucket debug 输出
+public final class CodecStats {
+
+    private static final LongAdder buckets = new LongAdder();
+    private static final LongAdder payloadBytes = new LongAdder();
+    private static final LongAdder tradeRawBytes = new LongAdder();
+    private static final LongAdder tradeStoredBytes = new LongAdder();
+    private static final LongAdder compressedBuckets = new LongAdder();
+    private static final LongAdder uncompressedFallbacks = new LongAdder();
+    private static final AtomicLong maxPayloadBytes = new AtomicLong();
+    private static final LongAdder encodeAllocatedBytes = new LongAdder();
+    private static volatile int lastPayloadBytes;
+    private static volatile double lastTradeRatio = 1.0;
+
+    private CodecStats() {}
+
+    static void record(int payloadSize, int tradeRaw, int tradeStored, boolean compressed, boolean fallback) {
+        buckets.increment();
+        payloadBytes.add(payloadSize);
+        tradeRawBytes.add(tradeRaw);
+        tradeStoredBytes.add(tradeStored);
+        if (compressed) compressedBuckets.increment();
+        if (fallback) uncompressedFallbacks.increment();
+        maxPayloadBytes.accumulateAndGet(payloadSize, Math::max);
+        lastPayloadBytes = payloadSize;
+        lastTradeRatio = tradeRaw > 0 ? (double) tradeStored / tradeRaw : 1.0;
+    }
+
+    static void recordAllocation(long bytes) {
+        encodeAllocatedBytes.add(bytes);
+    }
+
+    public static long getBuckets() { return buckets.sum(); }
+    public static long getEncodeAllocatedBytes() { return encodeAllocatedBytes.sum(); }
+    public static long getPayloadBytes() { return payloadBytes.sum(); }
+    public static long getCompressedBuckets() { return compressedBuckets.sum(); }
+    public static long getUncompressedFallbacks() { return uncompressedFallbacks.sum(); }
+    public static long getMaxPayloadBytes() { return maxPayloadBytes.get(); }
+    public static int getLastPayloadBytes() { return lastPayloadBytes; }
+    public static double getLastTradeRatio() { return lastTradeRatio; }
+
+    public static double getTradeRatio() {
+        long raw = tradeRawBytes.sum();
+        return raw > 0 ? (double) tradeStoredBytes.sum() / raw : 1.0;
+    }
+
+    public static String describe() {
+        long n = getBuckets();
+        return String.format("编码村民桶: %d, 平均体积: %d B, 最大: %d B, 上次: %d B\n交易段压缩率: %.1f%% (上次 %.1f%%), 已压缩: %d, 未压缩回退: %d\n编码内存分配: 平均 %d B/次",
+                n, n > 0 ? getPayloadBytes() / n : 0, getMaxPayloadBytes(), getLastPayloadBytes(),
+                getTradeRatio() * 100.0, getLastTradeRatio() * 100.0, getCompressedBuckets(), getUncompressedFallbacks(),
+                n > 0 ? getEncodeAllocatedBytes() / n : 0);
+    }
+}
@@ -0,0 +1,96 @@
+package com.ctn.Villager.codec;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 编码用的固定键表：常见注册表键写成短 id，表外的键内联写出字符串。
+// 已发布的 id 存在于玩家手里的村民桶中，各表只能在末尾追加，不能删改或调整顺序。
+public final class KeyTable {
+
+    // id 0 保留给“表外键”，后面紧跟字符串
+    public static final int INLINE = 0;
+
+    public static final KeyTable PROFESSIONS = new KeyTable(
+            "none", "armorer", "butcher", "cartographer", "cleric", "farmer", "fisherman", "fletcher",
+            "leatherworker", "librarian", "mason", "nitwit", "shepherd", "toolsmith", "weaponsmith"
+    );
+
+    public static final KeyTable TYPES = new KeyTable(
+            "desert", "jungle", "plains", "savanna", "snow", "swamp", "taiga"
+    );
+
+    // 原版村民交易中出现的物品
+    public static final KeyTable MATERIALS = new KeyTable(
+            "EMERALD", "BOOK", "ENCHANTED_BOOK", "PAPER", "BOOKSHELF", "INK_SAC", "LANTERN", "GLASS",
+            "WRITABLE_BOOK", "CLOCK", "COMPASS", "NAME_TAG", "MAP", "FILLED_MAP", "GLASS_PANE", "ITEM_FRAME",
+            "WHEAT", "POTATO", "CARROT", "BEETROOT", "BREAD", "PUMPKIN", "PUMPKIN_PIE", "APPLE",
+            "MELON", "COOKIE", "CAKE", "SUSPICIOUS_STEW", "GOLDEN_CARROT", "GLISTERING_MELON_SLICE", "STRING", "COAL",
+            "COD", "COOKED_COD", "SALMON", "COOKED_SALMON", "TROPICAL_FISH", "PUFFERFISH", "FISHING_ROD", "COD_BUCKET",
+            "CAMPFIRE", "OAK_BOAT", "SPRUCE_BOAT", "BIRCH_BOAT", "JUNGLE_BOAT", "ACACIA_BOAT", "DARK_OAK_BOAT", "SHEARS",
+            "WHITE_WOOL", "BROWN_WOOL", "BLACK_WOOL", "GRAY_WOOL", "PAINTING", "STICK", "ARROW", "FLINT",
+            "GRAVEL", "BOW", "CROSSBOW", "FEATHER", "TRIPWIRE_HOOK", "TIPPED_ARROW", "ROTTEN_FLESH", "REDSTONE",
+            "GOLD_INGOT", "LAPIS_LAZULI", "RABBIT_FOOT", "GLOWSTONE", "SCUTE", "TURTLE_SCUTE", "GLASS_BOTTLE", "ENDER_PEARL",
+            "NETHER_WART", "EXPERIENCE_BOTTLE", "IRON_INGOT", "IRON_HELMET", "IRON_CHESTPLATE", "IRON_LEGGINGS", "IRON_BOOTS", "LAVA_BUCKET",
+            "DIAMOND", "CHAINMAIL_HELMET", "CHAINMAIL_CHESTPLATE", "CHAINMAIL_LEGGINGS", "CHAINMAIL_BOOTS", "BELL", "SHIELD", "DIAMOND_HELMET",
+            "DIAMOND_CHESTPLATE", "DIAMOND_LEGGINGS", "DIAMOND_BOOTS", "IRON_AXE", "IRON_SWORD", "DIAMOND_SWORD", "DIAMOND_AXE", "STONE_AXE",
+            "STONE_SHOVEL", "STONE_PICKAXE", "STONE_HOE", "IRON_SHOVEL", "IRON_PICKAXE", "IRON_HOE", "DIAMOND_SHOVEL", "DIAMOND_PICKAXE",
+            "DIAMOND_HOE", "CHICKEN", "PORKCHOP", "RABBIT", "RABBIT_STEW", "COOKED_PORKCHOP", "COOKED_CHICKEN", "MUTTON",
+            "BEEF", "DRIED_KELP_BLOCK", "SWEET_BERRIES", "LEATHER", "LEATHER_HELMET", "LEATHER_CHESTPLATE", "LEATHER_LEGGINGS", "LEATHER_BOOTS",
+            "RABBIT_HIDE", "LEATHER_HORSE_ARMOR", "SADDLE", "CLAY_BALL", "BRICK", "STONE", "CHISELED_STONE_BRICKS", "GRANITE",
+            "ANDESITE", "DIORITE", "POLISHED_GRANITE", "POLISHED_ANDESITE", "POLISHED_DIORITE", "DRIPSTONE_BLOCK", "QUARTZ", "QUARTZ_BLOCK",
+            "QUARTZ_PILLAR", "TERRACOTTA", "WHITE_BED", "WHITE_BANNER", "WHITE_DYE", "WHITE_TERRACOTTA", "WHITE_GLAZED_TERRACOTTA", "STONE_BRICKS"
+    );
+
+    public static final KeyTable ENCHANTMENTS = new KeyTable(
+            "minecraft:protection", "minecraft:fire_protection", "minecraft:feather_falling", "minecraft:blast_protection",
+            "minecraft:projectile_protection", "minecraft:respiration", "minecraft:aqua_affinity", "minecraft:thorns",
+            "minecraft:depth_strider", "minecraft:frost_walker", "minecraft:binding_curse", "minecraft:soul_speed",
+            "minecraft:swift_sneak", "minecraft:sharpness", "minecraft:smite", "minecraft:bane_of_arthropods",
+            "minecraft:knockback", "minecraft:fire_aspect", "minecraft:looting", "minecraft:sweeping_edge",
+            "minecraft:efficiency", "minecraft:silk_touch", "minecraft:unbreaking", "minecraft:fortune",
+            "minecraft:power", "minecraft:punch", "minecraft:flame", "minecraft:infinity",
+            "minecraft:luck_of_the_sea", "minecraft:lure", "minecraft:loyalty", "minecraft:impaling",
+            "minecraft:riptide", "minecraft:channeling", "minecraft:multishot", "minecraft:quick_charge",
+            "minecraft:piercing", "minecraft:mending", "minecraft:vanishing_curse", "minecraft:density",
+            "minecraft:breach", "minecraft:wind_burst"
+    );
+
+    private final String[] keys;
+    private final Map<String, Integer> ids;
+
+    private KeyTable(String... keys) {
+        this.keys = keys;
+        this.ids = new HashMap<>(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) ids.put(keys[i], i + 1);
+    }
+
+    public int idOf(String key) {
+        if (key == null) return INLINE;
+        Integer id = ids.get(key);
+        return id != null ? id : INLINE;
+    }
+
+    public String keyOf(int id) {
+        if (id <= 0 || id > keys.length) return null;
+        return keys[id - 1];
+    }
+
+    public int size() { return keys.length; }
+
+    public void write(SnapshotWriter out, String key) {
+        int id = idOf(key);
+        out.writeVarInt(id);
+        if (id == INLINE) out.writeString(key);
+    }
+
+    public String read(SnapshotReader in) {
+        int id = in.readVarInt();
+        if (id == INLINE) {
+            String s = in.readString();
+            return s.isEmpty() ? null : s;
+        }
+        String key = keyOf(id);
+        if (key == null) throw new IllegalArgumentException("未知的键 id: " + id);
+        return key;
+    }
+}
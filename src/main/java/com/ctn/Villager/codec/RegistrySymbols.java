@@ -0,0 +1,116 @@
+package com.ctn.Villager.codec;
+
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Registry;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.entity.Villager;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+// 注册表符号表：启用时构建、重载时刷新，在字符串键和已解析的注册表对象之间双向映射。
+// 编码时由对象取键，解码后由 KeyTable 给出的键取对象，避免每件物品每个附魔都做一次注册表查找
+public final class RegistrySymbols {
+
+    private static volatile RegistrySymbols current = new RegistrySymbols();
+
+    private final Map<String, Material> materials = new HashMap<>();
+    private final Map<String, Enchantment> enchantments = new HashMap<>();
+    private final Map<Enchantment, String> enchantmentKeys = new IdentityHashMap<>();
+    private final Map<String, Villager.Profession> professions = new HashMap<>();
+    private final Map<Villager.Profession, String> professionKeys = new IdentityHashMap<>();
+    private final Map<String, Villager.Type> types = new HashMap<>();
+    private final Map<Villager.Type, String> typeKeys = new IdentityHashMap<>();
+
+    private RegistrySymbols() {}
+
+    public static RegistrySymbols get() { return current; }
+
+    // 重新从注册表构建，构建完成后整体替换，读线程不需要加锁
+    public static void rebuild(Logger logger) {
+        RegistrySymbols table = new RegistrySymbols();
+        try {
+            table.load();
+        } catch (Throwable t) {
+            logger.warning("构建注册表符号表失败，将回退到逐次查找: " + t.getMessage());
+        }
+        current = table;
+        logger.info("注册表符号表已构建: 物品 " + table.materials.size() + ", 附魔 " + table.enchantments.size()
+                + ", 职业 " + table.professions.size() + ", 群系类型 " + table.types.size());
+    }
+
+    private void load() {
+        for (Material m : Material.values()) materials.put(m.name(), m);
+
+        for (Enchantment e : Registry.ENCHANTMENT) {
+            String key = e.getKey().toString();
+            enchantments.put(key, e);
+            enchantmentKeys.put(e, key);
+        }
+
+        for (Villager.Profession p : Registry.VILLAGER_PROFESSION) {
+            String key = p.getKey().getKey();
+            professions.put(key, p);
+            professionKeys.put(p, key);
+        }
+
+        for (Villager.Type t : Registry.VILLAGER_TYPE) {
+            String key = t.getKey().getKey();
+            types.put(key, t);
+            typeKeys.put(t, key);
+        }
+    }
+
+    public Material material(String name) {
+        if (name == null) return null;
+        Material m = materials.get(name);
+        if (m != null) return m;
+        // 表中没有时（例如符号表尚未构建）退回原先的查找方式
+        try {
+            return Material.valueOf(name);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public Enchantment enchantment(String key) {
+        if (key == null) return null;
+        Enchantment e = enchantments.get(key);
+        if (e != null) return e;
+        NamespacedKey nk = NamespacedKey.fromString(key);
+        return nk != null ? Registry.ENCHANTMENT.get(nk) : null;
+    }
+
+    public String enchantmentKey(Enchantment e) {
+        String key = enchantmentKeys.get(e);
+        return key != null ? key : e.getKey().toString();
+    }
+
+    public Villager.Profession profession(String key) {
+        if (key == null || key.isEmpty()) return null;
+        Villager.Profession p = professions.get(key);
+        if (p != null) return p;
+        return Registry.VILLAGER_PROFESSION.get(NamespacedKey.minecraft(key.toLowerCase(Locale.ROOT)));
+    }
+
+    public String professionKey(Villager.Profession p) {
+        String key = professionKeys.get(p);
+        return key != null ? key : p.getKey().getKey();
+    }
+
+    public Villager.Type type(String key) {
+        if (key == null || key.isEmpty()) return null;
+        Villager.Type t = types.get(key);
+        if (t != null) return t;
+        return Registry.VILLAGER_TYPE.get(NamespacedKey.minecraft(key.toLowerCase(Locale.ROOT)));
+    }
+
+    public String typeKey(Villager.Type t) {
+        String key = typeKeys.get(t);
+        return key != null ? key : t.getKey().getKey();
+    }
+}
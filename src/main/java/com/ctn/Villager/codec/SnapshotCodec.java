@@ -0,0 +1,393 @@
+package com.ctn.Villager.codec;
+
+import com.ctn.Villager.VillagerManager.ItemData;
+import com.ctn.Villager.VillagerManager.MerchantRecipeData;
+import com.ctn.Villager.VillagerManager.VillagerSnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 村民快照的二进制编解码：首字节为格式版本，整数用 varint，注册表键优先写 KeyTable 中的 id
+public final class SnapshotCodec {
+
+    public static final int FORMAT_V1 = 1;
+    // V2：交易段独立成块，可选用预置字典 deflate 压缩
+    public static final int FORMAT_V2 = 2;
+
+    // 旧版 Gson JSON 数据总是以 '{' 开头
+    private static final int LEGACY_JSON_MARK = '{';
+
+    private static final int SNAP_ADULT = 1;
+    private static final int SNAP_AGE_LOCK = 1 << 1;
+    private static final int SNAP_CAPTURED = 1 << 2;
+    private static final int SNAP_CUSTOM_NAME = 1 << 3;
+    private static final int SNAP_OWNER = 1 << 4;
+    private static final int SNAP_RECIPES = 1 << 5;
+
+    private static final int TRADES_RAW = 0;
+    private static final int TRADES_DEFLATE = 1;
+    // 交易段太小时压缩收益不抵头部开销
+    private static final int MIN_COMPRESS_BYTES = 64;
+    // 原始交易段长度上限，编码和解码共用；按条目数算正常村民远达不到，超出在编码时拒绝、解码时视为损坏数据
+    public static final int MAX_TRADE_BYTES = 1 << 20;
+
+    private static final int RECIPE_RESULT = 1;
+    private static final int RECIPE_EXP_REWARD = 1 << 1;
+
+    private static final int ITEM_DISPLAY_NAME = 1;
+    private static final int ITEM_LORE = 1 << 1;
+    private static final int ITEM_ENCHANTS = 1 << 2;
+    private static final int ITEM_STORED_ENCHANTS = 1 << 3;
+    private static final int ITEM_CUSTOM_MODEL_DATA = 1 << 4;
+
+    // 每个线程复用一套缓冲区和压缩器，编码过程中只在最后复制出一份写入 PDC 的 byte[]
+    private static final ThreadLocal<SnapshotWriter> MAIN_BUFFER = ThreadLocal.withInitial(() -> new SnapshotWriter(1024));
+    private static final ThreadLocal<SnapshotWriter> TRADE_BUFFER = ThreadLocal.withInitial(() -> new SnapshotWriter(4096));
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private SnapshotCodec() {}
+
+    public static boolean isLegacyJson(byte[] data) {
+        return data != null && data.length > 0 && (data[0] & 0xFF) == LEGACY_JSON_MARK;
+    }
+
+    public static byte[] encode(VillagerSnapshot s, boolean compressTrades) {
+        SnapshotWriter out = MAIN_BUFFER.get();
+        SnapshotWriter trades = TRADE_BUFFER.get();
+        long grownBefore = out.getGrownBytes() + trades.getGrownBytes();
+        out.reset();
+        trades.reset();
+
+        out.writeByte(FORMAT_V2);
+        writeSnapshot(out, s);
+
+        int tradeRaw = 0;
+        int tradeStored = 0;
+        boolean compressed = false;
+        boolean fallback = false;
+        if (s.recipes != null) {
+            trades.writeVarInt(s.recipes.size());
+            for (MerchantRecipeData r : s.recipes) writeRecipe(trades, r);
+            tradeRaw = trades.size();
+            // 先检查上限再选择编码，压缩段的原始长度同样受限，压缩长度也因此总能放进 3 字节 varint
+            if (tradeRaw > MAX_TRADE_BYTES) throw new IllegalArgumentException("交易段过大: " + tradeRaw + " 字节");
+
+            int mark = out.size();
+            if (compressTrades && tradeRaw >= MIN_COMPRESS_BYTES) {
+                out.writeByte(TRADES_DEFLATE);
+                out.writeByte(TradeDictionary.V1);
+                out.writeVarInt(tradeRaw);
+                // 压缩长度事先未知，先占 3 字节 varint（足够表示 2MB 以内），写完后回填
+                int lenPos = out.size();
+                out.writeByte(0);
+                out.writeByte(0);
+                out.writeByte(0);
+                int packed = deflateInto(out, trades, TradeDictionary.V1);
+                if (packed > 0) {
+                    out.patchVarInt3(lenPos, packed);
+                    tradeStored = packed;
+                    compressed = true;
+                } else {
+                    // 压缩后没有变小就回退为原始交易段
+                    out.truncate(mark);
+                    fallback = true;
+                }
+            }
+
+            if (!compressed) {
+                out.writeByte(TRADES_RAW);
+                out.writeVarInt(tradeRaw);
+                out.writeBytes(trades.array(), 0, tradeRaw);
+                tradeStored = tradeRaw;
+            }
+        }
+
+        byte[] result = out.toByteArray();
+        long grown = out.getGrownBytes() + trades.getGrownBytes() - grownBefore;
+        CodecStats.record(result.length, tradeRaw, tradeStored, compressed, fallback);
+        CodecStats.recordAllocation(result.length + grown);
+        return result;
+    }
+
+    public static VillagerSnapshot decode(byte[] data) {
+        if (data == null || data.length == 0) throw new IllegalArgumentException("村民数据为空");
+        SnapshotReader in = new SnapshotReader(data);
+        int format = in.readByte();
+        if (format == FORMAT_V1) {
+            VillagerSnapshot s = readSnapshot(in);
+            if (s.recipes != null) s.recipes = readRecipes(in);
+            return s;
+        }
+        if (format == FORMAT_V2) {
+            VillagerSnapshot s = readSnapshot(in);
+            if (s.recipes != null) s.recipes = readTradeSection(in);
+            return s;
+        }
+        throw new IllegalArgumentException("不支持的村民数据格式: " + format);
+    }
+
+    // 交易模板：交易中不随使用变化的部分（物品、次数上限、经验、价格倍率），相同交易在村民之间可以共享
+    public static byte[] encodeTemplate(MerchantRecipeData r) {
+        SnapshotWriter out = TRADE_BUFFER.get();
+        out.reset();
+        List<ItemData> ings = r.ingredients;
+        int count = 0;
+        if (ings != null) for (ItemData id : ings) if (id != null) count++;
+        out.writeVarInt(count);
+        if (ings != null) for (ItemData id : ings) if (id != null) writeItem(out, id);
+
+        int flags = 0;
+        if (r.result != null) flags |= RECIPE_RESULT;
+        if (r.experienceReward) flags |= RECIPE_EXP_REWARD;
+        out.writeByte(flags);
+        if (r.result != null) writeItem(out, r.result);
+
+        out.writeVarInt(Math.max(0, r.maxUses));
+        out.writeVarInt(Math.max(0, r.villagerExperience));
+        out.writeFloat(r.priceMultiplier);
+        return out.toByteArray();
+    }
+
+    // 还原出的交易不含使用次数、需求和特价，由调用方填入
+    public static MerchantRecipeData decodeTemplate(byte[] data) {
+        SnapshotReader in = new SnapshotReader(data);
+        MerchantRecipeData r = new MerchantRecipeData();
+        int n = in.readCount();
+        r.ingredients = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) r.ingredients.add(readItem(in));
+
+        int flags = in.readByte();
+        r.experienceReward = (flags & RECIPE_EXP_REWARD) != 0;
+        if ((flags & RECIPE_RESULT) != 0) r.result = readItem(in);
+
+        r.maxUses = in.readVarInt();
+        r.villagerExperience = in.readVarInt();
+        r.priceMultiplier = in.readFloat();
+        return r;
+    }
+
+    private static List<MerchantRecipeData> readTradeSection(SnapshotReader in) {
+        int encoding = in.readByte();
+        if (encoding == TRADES_RAW) {
+            int len = in.readCount();
+            if (len > MAX_TRADE_BYTES) throw new IllegalArgumentException("非法的交易段长度: " + len);
+            return readRecipes(new SnapshotReader(in.readBytes(len)));
+        }
+        if (encoding == TRADES_DEFLATE) {
+            int dictId = in.readByte();
+            int rawLen = in.readVarInt();
+            int packedLen = in.readCount();
+            byte[] raw = inflate(in.readBytes(packedLen), rawLen, dictId);
+            return readRecipes(new SnapshotReader(raw));
+        }
+        throw new IllegalArgumentException("未知的交易段编码: " + encoding);
+    }
+
+    private static List<MerchantRecipeData> readRecipes(SnapshotReader in) {
+        int n = in.readCount();
+        List<MerchantRecipeData> recipes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) recipes.add(readRecipe(in));
+        return recipes;
+    }
+
+    // 返回压缩后的长度；压缩结果不小于原始长度时返回 -1
+    private static int deflateInto(SnapshotWriter out, SnapshotWriter trades, int dictId) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        try {
+            deflater.setDictionary(TradeDictionary.get(dictId));
+            deflater.setInput(trades.array(), 0, trades.size());
+            deflater.finish();
+            return out.writeDeflated(deflater, trades.size() - 1);
+        } finally {
+            // 释放对输入数组的引用
+            deflater.reset();
+        }
+    }
+
+    private static byte[] inflate(byte[] src, int rawLen, int dictId) {
+        byte[] dict = TradeDictionary.get(dictId);
+        if (dict == null) throw new IllegalArgumentException("未知的交易字典: " + dictId);
+        if (rawLen < 0 || rawLen > MAX_TRADE_BYTES) throw new IllegalArgumentException("非法的交易段长度: " + rawLen);
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        try {
+            inflater.setDictionary(dict);
+            inflater.setInput(src);
+            byte[] out = new byte[rawLen];
+            int n = 0;
+            while (n < rawLen) {
+                int r = inflater.inflate(out, n, rawLen - n);
+                if (r == 0) break;
+                n += r;
+            }
+            if (n != rawLen) throw new IllegalArgumentException("交易段解压长度不符");
+            return out;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("交易段解压失败: " + e.getMessage(), e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    // 只写基础字段，交易段由调用方按格式版本追加
+    private static void writeSnapshot(SnapshotWriter out, VillagerSnapshot s) {
+        KeyTable.PROFESSIONS.write(out, s.profession);
+        KeyTable.TYPES.write(out, s.type);
+        out.writeVarInt(Math.max(0, s.level));
+        out.writeVarInt(Math.max(0, s.experience));
+
+        int flags = 0;
+        if (s.adult) flags |= SNAP_ADULT;
+        if (s.ageLock) flags |= SNAP_AGE_LOCK;
+        if (s.captured) flags |= SNAP_CAPTURED;
+        if (s.customName != null) flags |= SNAP_CUSTOM_NAME;
+        if (s.owner != null) flags |= SNAP_OWNER;
+        if (s.recipes != null) flags |= SNAP_RECIPES;
+        out.writeVarInt(flags);
+
+        out.writeSignedVarInt(s.age);
+        out.writeDouble(s.health);
+        out.writeDouble(s.maxHealth);
+        if (s.customName != null) out.writeString(s.customName);
+        if (s.owner != null) {
+            out.writeLong(s.owner.getMostSignificantBits());
+            out.writeLong(s.owner.getLeastSignificantBits());
+        }
+        out.writeDouble(s.customDiscount);
+        out.writeString(s.creationSource);
+        out.writeVarLong(Math.max(0L, s.timestamp));
+    }
+
+    private static VillagerSnapshot readSnapshot(SnapshotReader in) {
+        VillagerSnapshot s = new VillagerSnapshot();
+        s.profession = KeyTable.PROFESSIONS.read(in);
+        s.type = KeyTable.TYPES.read(in);
+        s.level = in.readVarInt();
+        s.experience = in.readVarInt();
+
+        int flags = in.readVarInt();
+        s.adult = (flags & SNAP_ADULT) != 0;
+        s.ageLock = (flags & SNAP_AGE_LOCK) != 0;
+        s.captured = (flags & SNAP_CAPTURED) != 0;
+
+        s.age = in.readSignedVarInt();
+        s.health = in.readDouble();
+        s.maxHealth = in.readDouble();
+        if ((flags & SNAP_CUSTOM_NAME) != 0) s.customName = in.readString();
+        if ((flags & SNAP_OWNER) != 0) s.owner = new UUID(in.readLong(), in.readLong());
+        s.customDiscount = in.readDouble();
+        s.creationSource = in.readString();
+        s.timestamp = in.readVarLong();
+
+        // 先放一个空列表作标记，交易段由调用方读取
+        if ((flags & SNAP_RECIPES) != 0) s.recipes = new ArrayList<>();
+        return s;
+    }
+
+    private static void writeRecipe(SnapshotWriter out, MerchantRecipeData r) {
+        List<ItemData> ings = r.ingredients;
+        int count = 0;
+        if (ings != null) for (ItemData id : ings) if (id != null) count++;
+        out.writeVarInt(count);
+        if (ings != null) for (ItemData id : ings) if (id != null) writeItem(out, id);
+
+        int flags = 0;
+        if (r.result != null) flags |= RECIPE_RESULT;
+        if (r.experienceReward) flags |= RECIPE_EXP_REWARD;
+        out.writeByte(flags);
+        if (r.result != null) writeItem(out, r.result);
+
+        out.writeVarInt(Math.max(0, r.uses));
+        out.writeVarInt(Math.max(0, r.maxUses));
+        out.writeVarInt(Math.max(0, r.villagerExperience));
+        out.writeFloat(r.priceMultiplier);
+        out.writeSignedVarInt(r.demand);
+        out.writeSignedVarInt(r.specialPrice);
+    }
+
+    private static MerchantRecipeData readRecipe(SnapshotReader in) {
+        MerchantRecipeData r = new MerchantRecipeData();
+        int n = in.readCount();
+        r.ingredients = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) r.ingredients.add(readItem(in));
+
+        int flags = in.readByte();
+        r.experienceReward = (flags & RECIPE_EXP_REWARD) != 0;
+        if ((flags & RECIPE_RESULT) != 0) r.result = readItem(in);
+
+        r.uses = in.readVarInt();
+        r.maxUses = in.readVarInt();
+        r.villagerExperience = in.readVarInt();
+        r.priceMultiplier = in.readFloat();
+        r.demand = in.readSignedVarInt();
+        r.specialPrice = in.readSignedVarInt();
+        return r;
+    }
+
+    private static void writeItem(SnapshotWriter out, ItemData d) {
+        KeyTable.MATERIALS.write(out, d.type);
+        out.writeVarInt(Math.max(1, d.amount));
+
+        int flags = 0;
+        if (d.displayName != null) flags |= ITEM_DISPLAY_NAME;
+        if (d.lore != null) flags |= ITEM_LORE;
+        if (d.enchants != null) flags |= ITEM_ENCHANTS;
+        if (d.storedEnchants != null) flags |= ITEM_STORED_ENCHANTS;
+        if (d.customModelData != null) flags |= ITEM_CUSTOM_MODEL_DATA;
+        out.writeByte(flags);
+
+        if (d.displayName != null) out.writeString(d.displayName);
+        if (d.lore != null) {
+            out.writeVarInt(d.lore.size());
+            for (String line : d.lore) out.writeString(line);
+        }
+        if (d.enchants != null) writeEnchants(out, d.enchants);
+        if (d.storedEnchants != null) writeEnchants(out, d.storedEnchants);
+        if (d.customModelData != null) out.writeSignedVarInt(d.customModelData);
+    }
+
+    private static ItemData readItem(SnapshotReader in) {
+        ItemData d = new ItemData();
+        d.type = KeyTable.MATERIALS.read(in);
+        d.amount = in.readVarInt();
+
+        int flags = in.readByte();
+        if ((flags & ITEM_DISPLAY_NAME) != 0) d.displayName = in.readString();
+        if ((flags & ITEM_LORE) != 0) {
+            int n = in.readCount();
+            d.lore = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) d.lore.add(in.readString());
+        }
+        if ((flags & ITEM_ENCHANTS) != 0) d.enchants = readEnchants(in);
+        if ((flags & ITEM_STORED_ENCHANTS) != 0) d.storedEnchants = readEnchants(in);
+        if ((flags & ITEM_CUSTOM_MODEL_DATA) != 0) d.customModelData = in.readSignedVarInt();
+        return d;
+    }
+
+    private static void writeEnchants(SnapshotWriter out, Map<String, Integer> enchants) {
+        out.writeVarInt(enchants.size());
+        for (Map.Entry<String, Integer> e : enchants.entrySet()) {
+            KeyTable.ENCHANTMENTS.write(out, e.getKey());
+            out.writeVarInt(e.getValue() != null ? Math.max(0, e.getValue()) : 1);
+        }
+    }
+
+    private static Map<String, Integer> readEnchants(SnapshotReader in) {
+        int n = in.readCount();
+        Map<String, Integer> map = new HashMap<>(Math.max(2, n * 2));
+        for (int i = 0; i < n; i++) {
+            String key = KeyTable.ENCHANTMENTS.read(in);
+            int lvl = in.readVarInt();
+            if (key != null) map.put(key, lvl);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,103 @@
+package com.ctn.Villager.codec;
+
+import java.nio.charset.StandardCharsets;
+
+public class SnapshotReader {
+
+    private final byte[] buf;
+    private int pos;
+    private final int limit;
+
+    public SnapshotReader(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    public SnapshotReader(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    private void require(int n) {
+        if (n < 0 || pos + n > limit) throw new IllegalArgumentException("村民数据截断 (pos=" + pos + ", need=" + n + ")");
+    }
+
+    public int readByte() {
+        require(1);
+        return buf[pos++] & 0xFF;
+    }
+
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("varint 过长");
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("varlong 过长");
+    }
+
+    public int readSignedVarInt() {
+        int v = readVarInt();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public long readSignedVarLong() {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public long readLong() {
+        require(8);
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (buf[pos++] & 0xFF);
+        return v;
+    }
+
+    public float readFloat() {
+        require(4);
+        int v = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+        pos += 4;
+        return Float.intBitsToFloat(v);
+    }
+
+    public double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    // 读取元素个数，顺便防止恶意数据申请超大数组
+    public int readCount() {
+        int n = readVarInt();
+        if (n < 0 || n > remaining()) throw new IllegalArgumentException("非法的元素个数: " + n);
+        return n;
+    }
+
+    public byte[] readBytes(int len) {
+        require(len);
+        byte[] out = new byte[len];
+        System.arraycopy(buf, pos, out, 0, len);
+        pos += len;
+        return out;
+    }
+
+    public String readString() {
+        int len = readVarInt();
+        if (len == 0) return "";
+        require(len);
+        String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+        pos += len;
+        return s;
+    }
+
+    public int remaining() { return limit - pos; }
+}
@@ -0,0 +1,174 @@
+package com.ctn.Villager.codec;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+public class SnapshotWriter {
+
+    private byte[] buf;
+    private int pos;
+    // 扩容累计分配的字节数，用于统计每次编码的内存分配
+    private long grownBytes;
+
+    public SnapshotWriter() {
+        this(256);
+    }
+
+    public SnapshotWriter(int initialCapacity) {
+        this.buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    private void ensure(int extra) {
+        int need = pos + extra;
+        if (need <= buf.length) return;
+        int cap = Math.max(need, buf.length << 1);
+        buf = Arrays.copyOf(buf, cap);
+        grownBytes += cap;
+    }
+
+    // 复用缓冲区：只重置写入位置，不释放已分配的数组
+    public void reset() {
+        pos = 0;
+    }
+
+    public long getGrownBytes() { return grownBytes; }
+
+    public void writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+    public void writeBytes(byte[] src, int off, int len) {
+        ensure(len);
+        System.arraycopy(src, off, buf, pos, len);
+        pos += len;
+    }
+
+    public void writeVarInt(int value) {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+    }
+
+    public void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+    }
+
+    // ZigZag 编码，负数也能用短 varint 表示
+    public void writeSignedVarInt(int value) {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeLong(long v) {
+        ensure(8);
+        for (int i = 56; i >= 0; i -= 8) buf[pos++] = (byte) (v >>> i);
+    }
+
+    public void writeFloat(float f) {
+        int v = Float.floatToIntBits(f);
+        ensure(4);
+        buf[pos++] = (byte) (v >>> 24);
+        buf[pos++] = (byte) (v >>> 16);
+        buf[pos++] = (byte) (v >>> 8);
+        buf[pos++] = (byte) v;
+    }
+
+    public void writeDouble(double d) {
+        writeLong(Double.doubleToLongBits(d));
+    }
+
+    // 直接把 UTF-8 编码写入缓冲区，不生成中间 byte[]；孤立的代理字符写成 '?'，与 String.getBytes 一致
+    public void writeString(String s) {
+        if (s == null || s.isEmpty()) {
+            // null 与空串都写成长度 0，读取时统一还原为空串
+            writeVarInt(0);
+            return;
+        }
+        int len = s.length();
+        int utf8 = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) utf8++;
+            else if (c < 0x800) utf8 += 2;
+            else if (!Character.isSurrogate(c)) utf8 += 3;
+            else if (isPair(s, i)) { utf8 += 4; i++; }
+            else utf8++;
+        }
+        writeVarInt(utf8);
+        ensure(utf8);
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (isPair(s, i)) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                buf[pos++] = '?';
+            }
+        }
+    }
+
+    private static boolean isPair(String s, int i) {
+        return Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1));
+    }
+
+    // 把 deflater 的输出直接写进缓冲区；超过 limit 字节时放弃并返回 -1
+    public int writeDeflated(Deflater deflater, int limit) {
+        int start = pos;
+        ensure(limit);
+        while (!deflater.finished()) {
+            int room = start + limit - pos;
+            if (room <= 0) {
+                pos = start;
+                return -1;
+            }
+            pos += deflater.deflate(buf, pos, room);
+        }
+        return pos - start;
+    }
+
+    public int size() { return pos; }
+
+    // 回退到 mark 位置，丢弃之后写入的内容
+    public void truncate(int mark) {
+        if (mark < 0 || mark > pos) throw new IllegalArgumentException("非法的回退位置: " + mark);
+        pos = mark;
+    }
+
+    // 在预留的 3 字节位置回填 varint（补齐为 3 字节的非最短编码，解码结果相同）
+    void patchVarInt3(int at, int value) {
+        if (value < 0 || value >= (1 << 21)) throw new IllegalArgumentException("长度超出 3 字节 varint: " + value);
+        buf[at] = (byte) ((value & 0x7F) | 0x80);
+        buf[at + 1] = (byte) (((value >>> 7) & 0x7F) | 0x80);
+        buf[at + 2] = (byte) (value >>> 14);
+    }
+
+    byte[] array() { return buf; }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+}
@@ -0,0 +1,78 @@
+package com.ctn.Villager.codec;
+
+// 交易段压缩使用的预置字典，由常见原版交易的编码拼接而成。
+// 已压缩的村民桶依赖字典的逐字节内容，这里的生成逻辑一旦发布就不能再改；
+// 需要新字典时请新增一个 id，并保留旧字典用于解码。
+public final class TradeDictionary {
+
+    public static final int V1 = 1;
+    // V1 发布时附魔表的长度；之后追加的附魔不会进入 V1，字典内容保持逐字节不变
+    private static final int V1_ENCHANTMENTS = 42;
+
+    private static final byte[] DICT_V1 = buildV1();
+
+    private TradeDictionary() {}
+
+    public static byte[] get(int id) {
+        if (id == V1) return DICT_V1;
+        return null;
+    }
+
+    private static byte[] buildV1() {
+        SnapshotWriter w = new SnapshotWriter(8192);
+
+        // 物品换绿宝石 / 绿宝石换物品
+        String[] common = {
+                "WHEAT", "POTATO", "CARROT", "BEETROOT", "BREAD", "PUMPKIN", "MELON", "APPLE",
+                "STRING", "COAL", "COD", "SALMON", "STICK", "FLINT", "FEATHER", "PAPER",
+                "ROTTEN_FLESH", "GOLD_INGOT", "IRON_INGOT", "LEATHER", "CLAY_BALL", "STONE", "CHICKEN", "PORKCHOP",
+                "GLASS", "BOOKSHELF", "LANTERN", "REDSTONE", "LAPIS_LAZULI", "ARROW", "BRICK", "QUARTZ"
+        };
+        for (String m : common) {
+            writeTrade(w, m, 16, "EMERALD", 1, 16, 2, 0.05f);
+            writeTrade(w, "EMERALD", 1, m, 4, 16, 1, 0.05f);
+        }
+
+        // 图书管理员附魔书：绿宝石 + 书 -> 附魔书，出现频率最高，放在字典末尾
+        for (int id = 1; id <= V1_ENCHANTMENTS; id++) {
+            for (int lvl = 1; lvl <= 3; lvl++) {
+                w.writeVarInt(2);
+                writePlainItem(w, "EMERALD", 5 + lvl * 8);
+                writePlainItem(w, "BOOK", 1);
+                w.writeByte(0x03);
+                w.writeVarInt(KeyTable.MATERIALS.idOf("ENCHANTED_BOOK"));
+                w.writeVarInt(1);
+                w.writeByte(0x08);
+                w.writeVarInt(1);
+                w.writeVarInt(id);
+                w.writeVarInt(lvl);
+                writeTradeTail(w, 12, 30, 0.2f);
+            }
+        }
+        return w.toByteArray();
+    }
+
+    private static void writeTrade(SnapshotWriter w, String ing, int ingAmount, String res, int resAmount,
+                                   int maxUses, int exp, float priceMultiplier) {
+        w.writeVarInt(1);
+        writePlainItem(w, ing, ingAmount);
+        w.writeByte(0x03);
+        writePlainItem(w, res, resAmount);
+        writeTradeTail(w, maxUses, exp, priceMultiplier);
+    }
+
+    private static void writePlainItem(SnapshotWriter w, String material, int amount) {
+        w.writeVarInt(KeyTable.MATERIALS.idOf(material));
+        w.writeVarInt(amount);
+        w.writeByte(0);
+    }
+
+    private static void writeTradeTail(SnapshotWriter w, int maxUses, int exp, float priceMultiplier) {
+        w.writeVarInt(0);
+        w.writeVarInt(maxUses);
+        w.writeVarInt(exp);
+        w.writeFloat(priceMultiplier);
+        w.writeSignedVarInt(0);
+        w.writeSignedVarInt(0);
+    }
+}
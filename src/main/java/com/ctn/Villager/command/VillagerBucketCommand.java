@@ -1,17 +1,28 @@
 package com.ctn.Villager.command;
 
 import com.ctn.Villager.VillagerBucketPlugin;
+import com.ctn.Villager.VillagerManager;
+import com.ctn.Villager.cache.CacheBenchmark;
+import com.ctn.Villager.cache.CooldownBenchmark;
+import com.ctn.Villager.cache.TradeTemplate;
+import com.ctn.Villager.codec.CodecStats;
+import com.ctn.Villager.scheduler.SchedulerBenchmark;
+import com.ctn.Villager.scheduler.SchedulerLatency;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabExecutor;
 import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
 
 import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 import java.util.logging.Level;
 
 public class VillagerBucketCommand implements TabExecutor {
@@ -46,6 +57,14 @@ public class VillagerBucketCommand implements TabExecutor {
                 return redetectCommand(sender);
             case "host":
                 return hostCommand(sender, args);
+            case "bench":
+                return benchCommand(sender, args);
+            case "latency":
+                return latencyCommand(sender, args);
+            case "history":
+                return historyCommand(sender, args);
+            case "restore":
+                return restoreCommand(sender, args);
             default:
                 sendUsage(sender);
                 return true;
@@ -58,9 +77,16 @@ public class VillagerBucketCommand implements TabExecutor {
 
         if (args.length == 1) {
             String p = args[0].toLowerCase();
-            for (String s : new String[]{"reload", "info", "version", "help", "debug", "redetect", "host"}) {
+            for (String s : new String[]{"reload", "info", "version", "help", "debug", "redetect", "host", "bench", "latency", "history", "restore"}) {
                 if (s.startsWith(p)) out.add(s);
             }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("bench")) {
+            String p = args[1].toLowerCase();
+            for (String s : BENCH_TARGETS) {
+                if (s.startsWith(p)) out.add(s);
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("latency")) {
+            if ("reset".startsWith(args[1].toLowerCase())) out.add("reset");
         } else if (args.length >= 2 && args[0].equalsIgnoreCase("host")) {
             if (args.length == 2) {
                 String p = args[1].toLowerCase();
@@ -255,6 +281,10 @@ public class VillagerBucketCommand implements TabExecutor {
                     "&e/villagerbucket version &7- 查看版本信息",
                     "&e/villagerbucket debug &7- 输出调试信息",
                     "&e/villagerbucket redetect &7- 重新检测领地插件",
+                    "&e/villagerbucket bench <cache|cooldown|scheduler> &7- 运行性能基准测试（仅控制台）",
+                    "&e/villagerbucket latency [reset] &7- 查看或清空调度延迟统计",
+                    "&e/villagerbucket history <村民UUID> [条数] &7- 查看村民的历史快照",
+                    "&e/villagerbucket restore <村民UUID> [序号] &7- 用历史快照重新生成村民桶",
                     "&e/villagerbucket help &7- 显示此帮助信息"
             );
         }
@@ -285,7 +315,20 @@ public class VillagerBucketCommand implements TabExecutor {
                     sb.append("Version: ").append(plugin.getDescription().getVersion()).append("\n");
                     sb.append("Server: ").append(plugin.isFolia() ? "Folia" : "Bukkit").append("\n");
                     sb.append("DebugMode: ").append(plugin.getConfig().getBoolean("settings.debug-mode", false)).append("\n");
-                    sb.append("DataFolder: ").append(plugin.getDataFolder().getAbsolutePath()).append("\n\n");
+                    sb.append("DataFolder: ").append(plugin.getDataFolder().getAbsolutePath()).append("\n");
+                    sb.append(CodecStats.describe()).append("\n");
+                    sb.append(plugin.getVillagerManager().getVillagerCache().describe()).append("\n");
+                    sb.append(TradeTemplate.describePool()).append("\n");
+                    sb.append(plugin.getExpiryWheel().describe()).append("\n");
+                    sb.append(plugin.getAdmissionController().describe()).append("\n");
+                    sb.append(plugin.getSchedulerManager().describeHops()).append("\n");
+                    sb.append(plugin.getSchedulerManager().getTaskRegistry().describe()).append("\n");
+                    sb.append(plugin.getVillagerManager().getSpatialIndex().describe()).append("\n");
+                    sb.append(plugin.getVillagerManager().describeSnapshotStats()).append("\n");
+                    if (plugin.getVillagerManager().getSnapshotStore() != null) {
+                        sb.append(plugin.getVillagerManager().getSnapshotStore().describe()).append("\n");
+                    }
+                    sb.append("\n");
                     sb.append(claimDebug);
 
                     plugin.getScheduler().runGlobal(new Runnable() {
@@ -314,6 +357,174 @@ public class VillagerBucketCommand implements TabExecutor {
         return true;
     }
 
+    private static final String[] BENCH_TARGETS = {"cache", "cooldown", "scheduler"};
+
+    // 性能基准只在异步线程运行，结果回到全局线程发送；会占满多个线程数秒，只允许控制台执行
+    private boolean benchCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission(plugin.getConfig().getString("permissions.debug", "villagerbucket.debug"))) {
+            sendMessage(sender, plugin.getMessage("no-permission", "&c你没有权限执行此操作！"));
+            return true;
+        }
+        if (sender instanceof Player) {
+            sendMessage(sender, ChatColor.RED + "基准测试会占用多个线程数秒，只能在控制台执行");
+            return true;
+        }
+        if (args.length < 2) {
+            sendMessage(sender, ChatColor.RED + "用法: /villagerbucket bench <" + String.join("|", BENCH_TARGETS) + ">");
+            return true;
+        }
+
+        final String target = args[1].toLowerCase();
+        final CommandSender finalSender = sender;
+        sendMessage(sender, ChatColor.YELLOW + "正在运行基准测试: " + target + " ...");
+        plugin.getScheduler().runAsync(() -> {
+            List<String> lines;
+            try {
+                int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+                switch (target) {
+                    case "cache":
+                        lines = CacheBenchmark.run(threads, 1000L, plugin.getVillagerManager().getVillagerCache().getShardCount());
+                        break;
+                    case "cooldown":
+                        lines = CooldownBenchmark.run(threads, 1000L, 16);
+                        break;
+                    case "scheduler":
+                        lines = SchedulerBenchmark.run(1000L);
+                        break;
+                    default:
+                        lines = Arrays.asList(ChatColor.RED + "未知的基准测试: " + target);
+                        break;
+                }
+            } catch (Throwable t) {
+                plugin.getLogger().log(Level.WARNING, "基准测试失败", t);
+                lines = Arrays.asList(ChatColor.RED + "基准测试失败: " + t.getMessage());
+            }
+            final List<String> result = lines;
+            plugin.getScheduler().runGlobal(() -> {
+                for (String line : result) sendMessage(finalSender, ChatColor.YELLOW + line);
+            });
+        });
+        return true;
+    }
+
+    // 调度延迟统计只读原子计数，直接在当前线程汇总
+    private boolean latencyCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission(plugin.getConfig().getString("permissions.debug", "villagerbucket.debug"))) {
+            sendMessage(sender, plugin.getMessage("no-permission", "&c你没有权限执行此操作！"));
+            return true;
+        }
+
+        SchedulerLatency latency = plugin.getSchedulerManager().getTaskRegistry().getLatency();
+        if (args.length >= 2 && args[1].equalsIgnoreCase("reset")) {
+            latency.reset();
+            sendMessage(sender, ChatColor.GREEN + "调度延迟统计已清空");
+            return true;
+        }
+
+        List<String> lines = latency.describe();
+        sendMessage(sender, ChatColor.GOLD + "=== 调度延迟 (调用点/类别) ===");
+        if (lines.isEmpty()) {
+            sendMessage(sender, ChatColor.YELLOW + "暂无记录");
+        }
+        for (String line : lines) {
+            sendMessage(sender, ChatColor.YELLOW + line);
+        }
+        sendMessage(sender, ChatColor.GRAY + plugin.getSchedulerManager().describeHops());
+        return true;
+    }
+
+    private static UUID parseUuid(String s) {
+        try {
+            return UUID.fromString(s);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int parseCount(String[] args, int index, int def, int max) {
+        if (args.length <= index) return def;
+        try {
+            return Math.max(0, Math.min(max, Integer.parseInt(args[index])));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    // 快照存储的读取在异步线程进行，结果回到全局线程发送
+    private boolean historyCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission(plugin.getConfig().getString("permissions.debug", "villagerbucket.debug"))) {
+            sendMessage(sender, plugin.getMessage("no-permission", "&c你没有权限执行此操作！"));
+            return true;
+        }
+        final UUID id = args.length >= 2 ? parseUuid(args[1]) : null;
+        if (id == null) {
+            sendMessage(sender, ChatColor.RED + "用法: /villagerbucket history <村民UUID> [条数]");
+            return true;
+        }
+        if (plugin.getVillagerManager().getSnapshotStore() == null) {
+            sendMessage(sender, ChatColor.RED + "村民快照存储未启用");
+            return true;
+        }
+
+        final int limit = Math.max(1, parseCount(args, 2, 5, 20));
+        final CommandSender finalSender = sender;
+        plugin.getScheduler().runAsync(() -> {
+            List<VillagerManager.VillagerSnapshot> history = plugin.getVillagerManager().loadSnapshotHistory(id, limit);
+            SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < history.size(); i++) {
+                VillagerManager.VillagerSnapshot s = history.get(i);
+                lines.add("#" + i + " " + fmt.format(new Date(s.timestamp)) + " " + s.profession + "/" + s.type
+                        + " 等级 " + s.level + " 交易 " + (s.recipes != null ? s.recipes.size() : 0)
+                        + (s.captured ? " 已捕获" : "") + " 来源 " + s.creationSource);
+            }
+            plugin.getScheduler().runGlobal(() -> {
+                sendMessage(finalSender, ChatColor.GOLD + "=== 村民 " + id + " 的历史快照 ===");
+                if (lines.isEmpty()) sendMessage(finalSender, ChatColor.YELLOW + "存储中没有该村民的快照");
+                for (String line : lines) sendMessage(finalSender, ChatColor.YELLOW + line);
+            });
+        });
+        return true;
+    }
+
+    // 按 history 列出的序号恢复，生成的村民桶放进执行者的物品栏
+    private boolean restoreCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission(plugin.getConfig().getString("permissions.restore", "villagerbucket.restore"))) {
+            sendMessage(sender, plugin.getMessage("no-permission", "&c你没有权限执行此操作！"));
+            return true;
+        }
+        if (!(sender instanceof Player player)) {
+            sendMessage(sender, ChatColor.RED + "只有玩家可以领取恢复的村民桶");
+            return true;
+        }
+        final UUID id = args.length >= 2 ? parseUuid(args[1]) : null;
+        if (id == null) {
+            sendMessage(sender, ChatColor.RED + "用法: /villagerbucket restore <村民UUID> [序号]");
+            return true;
+        }
+        if (plugin.getVillagerManager().getSnapshotStore() == null) {
+            sendMessage(sender, ChatColor.RED + "村民快照存储未启用");
+            return true;
+        }
+
+        final int version = parseCount(args, 2, 0, 64);
+        plugin.getScheduler().runAsync(() -> {
+            ItemStack bucket = plugin.getVillagerManager().buildBucketFromStore(id, version);
+            plugin.getScheduler().executeAtEntity(player, () -> {
+                if (bucket == null) {
+                    sendMessage(player, ChatColor.RED + "未找到村民 " + id + " 的第 " + version + " 个快照");
+                    return;
+                }
+                if (!player.getInventory().addItem(bucket).isEmpty()) {
+                    player.getWorld().dropItemNaturally(player.getLocation(), bucket);
+                }
+                sendMessage(player, ChatColor.GREEN + "已用第 " + version + " 个快照恢复村民 " + id);
+                plugin.getLogger().info(player.getName() + " 从快照存储恢复了村民 " + id + " (#" + version + ")");
+            });
+        });
+        return true;
+    }
+
     private boolean redetectCommand(CommandSender sender) {
         if (!sender.hasPermission(plugin.getConfig().getString("permissions.reload", "villagerbucket.reload"))) {
             sendMessage(sender, plugin.getMessage("no-permission", "&c你没有权限执行此操作！"));
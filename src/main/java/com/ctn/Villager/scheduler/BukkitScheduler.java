@@ -1,17 +1,21 @@
 package com.ctn.Villager.scheduler;
 
+import com.ctn.Villager.scheduler.TaskRegistry.Category;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.entity.Entity;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
 
 public class BukkitScheduler implements IScheduler {
     private final Plugin plugin;
     private final SchedulerManager manager;
+    private final TaskRegistry registry;
 
     public BukkitScheduler(Plugin plugin, SchedulerManager manager) {
         this.plugin = plugin;
         this.manager = manager;
+        this.registry = manager.getTaskRegistry();
     }
 
     @Override
@@ -19,106 +23,165 @@ public class BukkitScheduler implements IScheduler {
         return Bukkit.isPrimaryThread();
     }
 
+    // 一次性任务执行完即结束计数；site 为调用点标签来源（实体/区域任务外面还包了一层有效性检查）
+    private TaskHandle once(Category category, Runnable site, Runnable task, boolean async, long delay, boolean track) {
+        TaskHandle handle = registry.open(category, track, site, delay);
+        Runnable wrapped = () -> {
+            long start = handle.beginRun();
+            try { task.run(); } finally {
+                handle.endRun(start);
+                handle.finish();
+            }
+        };
+        BukkitTask bukkitTask;
+        if (delay <= 0) {
+            bukkitTask = async ? Bukkit.getScheduler().runTaskAsynchronously(plugin, wrapped)
+                    : Bukkit.getScheduler().runTask(plugin, wrapped);
+        } else {
+            bukkitTask = async ? Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, wrapped, delay)
+                    : Bukkit.getScheduler().runTaskLater(plugin, wrapped, delay);
+        }
+        handle.bind(bukkitTask::cancel);
+        return handle;
+    }
+
     @Override
-    public String runGlobal(Runnable task) {
-        int id = Bukkit.getScheduler().runTask(plugin, task).getTaskId();
-        manager.addBukkitTaskId(id);
-        return String.valueOf(id);
+    public TaskHandle runGlobal(Runnable task) {
+        return once(Category.GLOBAL, task, task, false, 0L, false);
     }
 
     @Override
-    public String runAsync(Runnable task) {
-        int id = Bukkit.getScheduler().runTaskAsynchronously(plugin, task).getTaskId();
-        manager.addBukkitTaskId(id);
-        return String.valueOf(id);
+    public TaskHandle runAsync(Runnable task) {
+        return once(Category.ASYNC, task, task, true, 0L, false);
     }
 
     @Override
-    public String runAtEntity(Entity entity, Runnable task) {
-        if (entity == null || !entity.isValid()) return null;
-        int id = Bukkit.getScheduler().runTask(plugin, () -> {
+    public TaskHandle runAtEntity(Entity entity, Runnable task) {
+        return runAtEntity(entity, task, null);
+    }
+
+    @Override
+    public TaskHandle runAtEntity(Entity entity, Runnable task, Runnable retired) {
+        if (entity == null || !entity.isValid()) {
+            if (retired != null) retired.run();
+            return null;
+        }
+        return once(Category.ENTITY, task, () -> {
             if (entity.isValid()) task.run();
-        }).getTaskId();
-        manager.addBukkitTaskId(id);
-        return String.valueOf(id);
+            else if (retired != null) retired.run();
+        }, false, 0L, false);
     }
 
     @Override
-    public String runAtLocation(Location location, Runnable task) {
-        if (location == null || location.getWorld() == null) return null;
-        int id = Bukkit.getScheduler().runTask(plugin, () -> {
-            if (location.getWorld() != null) task.run();
-        }).getTaskId();
-        manager.addBukkitTaskId(id);
-        return String.valueOf(id);
+    public TaskHandle executeAtEntity(Entity entity, Runnable task) {
+        return executeAtEntity(entity, task, null);
     }
 
+    // 单线程核心上主线程拥有一切实体和位置
     @Override
-    public String runAtEntityLater(Entity entity, Runnable task, long delay) {
-        if (entity == null || !entity.isValid()) return null;
-        int id = Bukkit.getScheduler().runTaskLater(plugin, () -> {
+    public TaskHandle executeAtEntity(Entity entity, Runnable task, Runnable retired) {
+        if (entity != null && Bukkit.isPrimaryThread()) {
+            manager.recordHop(true);
             if (entity.isValid()) task.run();
-        }, delay).getTaskId();
-        manager.addBukkitTaskId(id);
-        return String.valueOf(id);
+            else if (retired != null) retired.run();
+            return null;
+        }
+        manager.recordHop(false);
+        return runAtEntity(entity, task, retired);
     }
 
     @Override
-    public String runAsyncLater(Runnable task, long delay) {
-        int id = Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, task, delay).getTaskId();
-        manager.addBukkitTaskId(id);
-        return String.valueOf(id);
+    public TaskHandle executeAtLocation(Location location, Runnable task) {
+        if (location != null && location.getWorld() != null && Bukkit.isPrimaryThread()) {
+            manager.recordHop(true);
+            task.run();
+            return null;
+        }
+        manager.recordHop(false);
+        return runAtLocation(location, task);
     }
 
     @Override
-    public String runAsyncTimer(Runnable task, long delay, long period) {
-        int id = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, task, delay, period).getTaskId();
-        manager.addBukkitTaskId(id);
-        return String.valueOf(id);
+    public void fireAtEntity(Entity entity, Runnable task) {
+        if (entity == null) return;
+        fire(() -> {
+            if (entity.isValid()) task.run();
+        });
     }
 
     @Override
-    public String runLater(Runnable task, long delay) {
-        int id = Bukkit.getScheduler().runTaskLater(plugin, task, delay).getTaskId();
-        manager.addBukkitTaskId(id);
-        return String.valueOf(id);
+    public void fireAtLocation(Location location, Runnable task) {
+        if (location == null || location.getWorld() == null) return;
+        fire(task);
+    }
+
+    private void fire(Runnable task) {
+        if (Bukkit.isPrimaryThread()) task.run();
+        else Bukkit.getScheduler().runTask(plugin, task);
     }
 
     @Override
-    public String runGlobalLater(Runnable task, long delay) {
-        int id = Bukkit.getScheduler().runTaskLater(plugin, task, delay).getTaskId();
-        manager.addBukkitTaskId(id);
-        return String.valueOf(id);
+    public TaskHandle runAtLocation(Location location, Runnable task) {
+        if (location == null || location.getWorld() == null) return null;
+        return once(Category.REGION, task, () -> {
+            if (location.getWorld() != null) task.run();
+        }, false, 0L, false);
     }
 
     @Override
-    public String runGlobalTimer(Runnable task, long delay, long period) {
-        int id = Bukkit.getScheduler().runTaskTimer(plugin, task, delay, period).getTaskId();
-        manager.addBukkitTaskId(id);
-        return String.valueOf(id);
+    public TaskHandle runAtEntityLater(Entity entity, Runnable task, long delay) {
+        if (entity == null || !entity.isValid()) return null;
+        return once(Category.ENTITY, task, () -> {
+            if (entity.isValid()) task.run();
+        }, false, delay, true);
+    }
+
+    @Override
+    public TaskHandle runAsyncLater(Runnable task, long delay) {
+        return once(Category.ASYNC, task, task, true, delay, true);
+    }
+
+    @Override
+    public TaskHandle runAsyncTimer(Runnable task, long delay, long period) {
+        TaskHandle handle = registry.open(Category.TIMER, true, task, delay);
+        handle.bind(Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, timed(handle, task), delay, period)::cancel);
+        return handle;
+    }
+
+    // 定时任务每次执行都计时，但不结束句柄
+    private static Runnable timed(TaskHandle handle, Runnable task) {
+        return () -> {
+            long start = handle.beginRun();
+            try { task.run(); } finally {
+                handle.endRun(start);
+            }
+        };
     }
 
     @Override
-    public String runAtLocationLater(Location location, Runnable task, long delay) {
+    public TaskHandle runLater(Runnable task, long delay) {
         return runGlobalLater(task, delay);
     }
 
     @Override
-    public String runAtLocationTimer(Location location, Runnable task, long delay, long period) {
-        return runGlobalTimer(task, delay, period);
+    public TaskHandle runGlobalLater(Runnable task, long delay) {
+        return once(Category.GLOBAL, task, task, false, delay, true);
     }
 
     @Override
-    public void cancelTask(String taskId) {
-        try {
-            int id = Integer.parseInt(taskId);
-            cancelTask(id);
-        } catch (NumberFormatException ignored) {}
+    public TaskHandle runGlobalTimer(Runnable task, long delay, long period) {
+        TaskHandle handle = registry.open(Category.TIMER, true, task, delay);
+        handle.bind(Bukkit.getScheduler().runTaskTimer(plugin, timed(handle, task), delay, period)::cancel);
+        return handle;
     }
 
     @Override
-    public void cancelTask(int taskId) {
-        Bukkit.getScheduler().cancelTask(taskId);
-        manager.removeBukkitTaskId(taskId);
+    public TaskHandle runAtLocationLater(Location location, Runnable task, long delay) {
+        return once(Category.REGION, task, task, false, delay, true);
+    }
+
+    @Override
+    public TaskHandle runAtLocationTimer(Location location, Runnable task, long delay, long period) {
+        return runGlobalTimer(task, delay, period);
     }
-}
\ No newline at end of file
+}
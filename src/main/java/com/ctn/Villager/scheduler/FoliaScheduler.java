@@ -1,22 +1,26 @@
 package com.ctn.Villager.scheduler;
 
+import com.ctn.Villager.scheduler.TaskRegistry.Category;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.entity.Entity;
 import org.bukkit.plugin.Plugin;
 import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+// 每个任务都在 TaskRegistry 中计数，执行完、被撤销或被取消时结束；
+// 只有延迟任务和定时任务保存句柄，一次性延迟任务执行后自动移除。
+// 每次执行前后记录排队延迟和执行耗时，见 SchedulerLatency
 public class FoliaScheduler implements IScheduler {
     private final Plugin plugin;
     private final SchedulerManager manager;
-    private final ConcurrentHashMap<String, ScheduledTask> taskMap = new ConcurrentHashMap<>();
+    private final TaskRegistry registry;
 
     public FoliaScheduler(Plugin plugin, SchedulerManager manager) {
         this.plugin = plugin;
         this.manager = manager;
+        this.registry = manager.getTaskRegistry();
     }
 
     @Override
@@ -25,178 +29,242 @@ public class FoliaScheduler implements IScheduler {
     }
 
     @Override
-    public String runGlobal(Runnable task) {
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+    public TaskHandle runGlobal(Runnable task) {
+        TaskHandle handle = registry.open(Category.GLOBAL, false, task, 0L);
         ScheduledTask scheduledTask = Bukkit.getGlobalRegionScheduler().run(plugin, t -> {
+            long start = handle.beginRun();
             try { task.run(); } finally {
-                manager.removeFoliaTaskId(id);
-                taskMap.remove(id);
+                handle.endRun(start);
+                handle.finish();
             }
         });
-        taskMap.put(id, scheduledTask);
-        return id;
+        handle.bind(scheduledTask::cancel);
+        return handle;
     }
 
     @Override
-    public String runAsync(Runnable task) {
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+    public TaskHandle runAsync(Runnable task) {
+        TaskHandle handle = registry.open(Category.ASYNC, false, task, 0L);
         ScheduledTask scheduledTask = Bukkit.getAsyncScheduler().runNow(plugin, t -> {
+            long start = handle.beginRun();
             try { task.run(); } finally {
-                manager.removeFoliaTaskId(id);
-                taskMap.remove(id);
+                handle.endRun(start);
+                handle.finish();
             }
         });
-        taskMap.put(id, scheduledTask);
-        return id;
+        handle.bind(scheduledTask::cancel);
+        return handle;
     }
 
     @Override
-    public String runAtEntity(Entity entity, Runnable task) {
-        if (entity == null || !entity.isValid()) return null;
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+    public TaskHandle runAtEntity(Entity entity, Runnable task) {
+        return runAtEntity(entity, task, null);
+    }
+
+    @Override
+    public TaskHandle runAtEntity(Entity entity, Runnable task, Runnable retired) {
+        if (entity == null || !entity.isValid()) {
+            if (retired != null) retired.run();
+            return null;
+        }
+        TaskHandle handle = registry.open(Category.ENTITY, false, task, 0L);
+        Runnable onRetired = () -> {
+            try { if (retired != null) retired.run(); } finally {
+                handle.finish();
+            }
+        };
         ScheduledTask scheduledTask = entity.getScheduler().run(plugin, t -> {
-            try { if (entity.isValid()) task.run(); } finally {
-                manager.removeFoliaTaskId(id);
-                taskMap.remove(id);
+            long start = handle.beginRun();
+            try {
+                if (entity.isValid()) task.run();
+                else if (retired != null) retired.run();
+            } finally {
+                handle.endRun(start);
+                handle.finish();
             }
-        }, null);
-        taskMap.put(id, scheduledTask);
-        return id;
+        }, onRetired);
+        // 实体已经退役时调度器返回 null，任务和回调都不会执行
+        if (scheduledTask == null) {
+            onRetired.run();
+            return null;
+        }
+        handle.bind(scheduledTask::cancel);
+        return handle;
+    }
+
+    @Override
+    public TaskHandle executeAtEntity(Entity entity, Runnable task) {
+        return executeAtEntity(entity, task, null);
     }
 
     @Override
-    public String runAtLocation(Location location, Runnable task) {
+    public TaskHandle executeAtEntity(Entity entity, Runnable task, Runnable retired) {
+        if (entity != null && Bukkit.isOwnedByCurrentRegion(entity)) {
+            manager.recordHop(true);
+            if (entity.isValid()) task.run();
+            else if (retired != null) retired.run();
+            return null;
+        }
+        manager.recordHop(false);
+        return runAtEntity(entity, task, retired);
+    }
+
+    @Override
+    public TaskHandle executeAtLocation(Location location, Runnable task) {
+        if (location != null && location.getWorld() != null && Bukkit.isOwnedByCurrentRegion(location)) {
+            manager.recordHop(true);
+            task.run();
+            return null;
+        }
+        manager.recordHop(false);
+        return runAtLocation(location, task);
+    }
+
+    @Override
+    public void fireAtEntity(Entity entity, Runnable task) {
+        if (entity == null) return;
+        if (Bukkit.isOwnedByCurrentRegion(entity)) {
+            if (entity.isValid()) task.run();
+            return;
+        }
+        entity.getScheduler().execute(plugin, task, null, 1L);
+    }
+
+    @Override
+    public void fireAtLocation(Location location, Runnable task) {
+        if (location == null || location.getWorld() == null) return;
+        if (Bukkit.isOwnedByCurrentRegion(location)) {
+            task.run();
+            return;
+        }
+        Bukkit.getRegionScheduler().execute(plugin, location, task);
+    }
+
+    @Override
+    public TaskHandle runAtLocation(Location location, Runnable task) {
         if (location == null || location.getWorld() == null) return null;
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+        TaskHandle handle = registry.open(Category.REGION, false, task, 0L);
         ScheduledTask scheduledTask = Bukkit.getRegionScheduler().run(plugin, location, t -> {
+            long start = handle.beginRun();
             try { if (location.getWorld() != null) task.run(); } finally {
-                manager.removeFoliaTaskId(id);
-                taskMap.remove(id);
+                handle.endRun(start);
+                handle.finish();
             }
         });
-        taskMap.put(id, scheduledTask);
-        return id;
+        handle.bind(scheduledTask::cancel);
+        return handle;
     }
 
     @Override
-    public String runAtEntityLater(Entity entity, Runnable task, long delay) {
+    public TaskHandle runAtEntityLater(Entity entity, Runnable task, long delay) {
         if (entity == null || !entity.isValid()) return null;
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+        TaskHandle handle = registry.open(Category.ENTITY, true, task, delay);
         ScheduledTask scheduledTask = entity.getScheduler().runDelayed(plugin, t -> {
+            long start = handle.beginRun();
             try { if (entity.isValid()) task.run(); } finally {
-                manager.removeFoliaTaskId(id);
-                taskMap.remove(id);
+                handle.endRun(start);
+                handle.finish();
             }
-        }, null, delay);
-        taskMap.put(id, scheduledTask);
-        return id;
+        }, handle::finish, delay);
+        if (scheduledTask == null) {
+            handle.finish();
+            return null;
+        }
+        handle.bind(scheduledTask::cancel);
+        return handle;
     }
 
     @Override
-    public String runAsyncLater(Runnable task, long delay) {
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+    public TaskHandle runAsyncLater(Runnable task, long delay) {
+        TaskHandle handle = registry.open(Category.ASYNC, true, task, delay);
         ScheduledTask scheduledTask = Bukkit.getAsyncScheduler().runDelayed(plugin, t -> {
+            long start = handle.beginRun();
             try { task.run(); } finally {
-                manager.removeFoliaTaskId(id);
-                taskMap.remove(id);
+                handle.endRun(start);
+                handle.finish();
             }
         }, delay * 50, TimeUnit.MILLISECONDS);
-        taskMap.put(id, scheduledTask);
-        return id;
+        handle.bind(scheduledTask::cancel);
+        return handle;
     }
 
     @Override
-    public String runAsyncTimer(Runnable task, long delay, long period) {
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+    public TaskHandle runAsyncTimer(Runnable task, long delay, long period) {
+        TaskHandle handle = registry.open(Category.TIMER, true, task, delay);
         ScheduledTask scheduledTask = Bukkit.getAsyncScheduler().runAtFixedRate(plugin, t -> {
+            long start = handle.beginRun();
             try { task.run(); } catch (Throwable ex) {
                 plugin.getLogger().warning("异步定时任务异常: " + ex.getMessage());
+            } finally {
+                handle.endRun(start);
             }
         }, delay * 50, period * 50, TimeUnit.MILLISECONDS);
-        taskMap.put(id, scheduledTask);
-        return id;
+        handle.bind(scheduledTask::cancel);
+        return handle;
     }
 
     @Override
-    public String runLater(Runnable task, long delay) {
+    public TaskHandle runLater(Runnable task, long delay) {
         return runAsyncLater(task, delay);
     }
 
     @Override
-    public String runGlobalLater(Runnable task, long delay) {
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+    public TaskHandle runGlobalLater(Runnable task, long delay) {
+        TaskHandle handle = registry.open(Category.GLOBAL, true, task, delay);
         ScheduledTask scheduledTask = Bukkit.getGlobalRegionScheduler().runDelayed(plugin, t -> {
+            long start = handle.beginRun();
             try { task.run(); } finally {
-                manager.removeFoliaTaskId(id);
-                taskMap.remove(id);
+                handle.endRun(start);
+                handle.finish();
             }
         }, delay);
-        taskMap.put(id, scheduledTask);
-        return id;
+        handle.bind(scheduledTask::cancel);
+        return handle;
     }
 
     @Override
-    public String runGlobalTimer(Runnable task, long delay, long period) {
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+    public TaskHandle runGlobalTimer(Runnable task, long delay, long period) {
+        TaskHandle handle = registry.open(Category.TIMER, true, task, delay);
         ScheduledTask scheduledTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, t -> {
+            long start = handle.beginRun();
             try { task.run(); } catch (Throwable ex) {
                 plugin.getLogger().warning("全局定时任务异常: " + ex.getMessage());
+            } finally {
+                handle.endRun(start);
             }
         }, delay, period);
-        taskMap.put(id, scheduledTask);
-        return id;
+        handle.bind(scheduledTask::cancel);
+        return handle;
     }
 
     @Override
-    public String runAtLocationLater(Location location, Runnable task, long delay) {
+    public TaskHandle runAtLocationLater(Location location, Runnable task, long delay) {
         if (location == null || location.getWorld() == null) return null;
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+        TaskHandle handle = registry.open(Category.REGION, true, task, delay);
         ScheduledTask scheduledTask = Bukkit.getRegionScheduler().runDelayed(plugin, location, t -> {
+            long start = handle.beginRun();
             try { if (location.getWorld() != null) task.run(); } finally {
-                manager.removeFoliaTaskId(id);
-                taskMap.remove(id);
+                handle.endRun(start);
+                handle.finish();
             }
         }, delay);
-        taskMap.put(id, scheduledTask);
-        return id;
+        handle.bind(scheduledTask::cancel);
+        return handle;
     }
 
     @Override
-    public String runAtLocationTimer(Location location, Runnable task, long delay, long period) {
+    public TaskHandle runAtLocationTimer(Location location, Runnable task, long delay, long period) {
         if (location == null || location.getWorld() == null) return null;
-        String id = java.util.UUID.randomUUID().toString();
-        manager.addFoliaTaskId(id);
+        TaskHandle handle = registry.open(Category.TIMER, true, task, delay);
         ScheduledTask scheduledTask = Bukkit.getRegionScheduler().runAtFixedRate(plugin, location, t -> {
+            long start = handle.beginRun();
             try { if (location.getWorld() != null) task.run(); } catch (Throwable ex) {
                 plugin.getLogger().warning("区域定时任务异常: " + ex.getMessage());
+            } finally {
+                handle.endRun(start);
             }
         }, delay, period);
-        taskMap.put(id, scheduledTask);
-        return id;
-    }
-
-    @Override
-    public void cancelTask(String taskId) {
-        ScheduledTask task = taskMap.get(taskId);
-        if (task != null) {
-            task.cancel();
-            taskMap.remove(taskId);
-            manager.removeFoliaTaskId(taskId);
-        }
-    }
-
-    @Override
-    public void cancelTask(int taskId) {
-        cancelTask(String.valueOf(taskId));
+        handle.bind(scheduledTask::cancel);
+        return handle;
     }
-}
\ No newline at end of file
+}
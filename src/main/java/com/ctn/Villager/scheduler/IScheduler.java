@@ -5,18 +5,29 @@ import org.bukkit.entity.Entity;
 
 public interface IScheduler {
     boolean isPrimaryThread();
-    String runGlobal(Runnable task);
-    String runAsync(Runnable task);
-    String runAtEntity(Entity entity, Runnable task);
-    String runAtLocation(Location location, Runnable task);
-    String runAtEntityLater(Entity entity, Runnable task, long delay);
-    String runAsyncLater(Runnable task, long delay);
-    String runAsyncTimer(Runnable task, long delay, long period);
-    String runLater(Runnable task, long delay);
-    String runGlobalLater(Runnable task, long delay);
-    String runGlobalTimer(Runnable task, long delay, long period);
-    String runAtLocationLater(Location location, Runnable task, long delay);
-    String runAtLocationTimer(Location location, Runnable task, long delay, long period);
-    void cancelTask(String taskId);
-    void cancelTask(int taskId);
-}
\ No newline at end of file
+    TaskHandle runGlobal(Runnable task);
+    TaskHandle runAsync(Runnable task);
+    TaskHandle runAtEntity(Entity entity, Runnable task);
+    // 实体在任务执行前失效（死亡、被移除、卸载）时改为调用 retired，两者恰好执行其一
+    TaskHandle runAtEntity(Entity entity, Runnable task, Runnable retired);
+    // 当前线程已拥有该实体/位置时立即执行并返回 null，否则与 runAt* 相同地投递任务
+    TaskHandle executeAtEntity(Entity entity, Runnable task);
+    TaskHandle executeAtEntity(Entity entity, Runnable task, Runnable retired);
+    TaskHandle executeAtLocation(Location location, Runnable task);
+    // 即发即弃：不分配句柄、不登记、不统计延迟，用于消息和特效这类既不取消也不需要观测的小任务。
+    // 当前线程已拥有该实体/位置时立即执行；实体失效时任务被丢弃
+    void fireAtEntity(Entity entity, Runnable task);
+    void fireAtLocation(Location location, Runnable task);
+    TaskHandle runAtLocation(Location location, Runnable task);
+    TaskHandle runAtEntityLater(Entity entity, Runnable task, long delay);
+    TaskHandle runAsyncLater(Runnable task, long delay);
+    TaskHandle runAsyncTimer(Runnable task, long delay, long period);
+    TaskHandle runLater(Runnable task, long delay);
+    TaskHandle runGlobalLater(Runnable task, long delay);
+    TaskHandle runGlobalTimer(Runnable task, long delay, long period);
+    TaskHandle runAtLocationLater(Location location, Runnable task, long delay);
+    TaskHandle runAtLocationTimer(Location location, Runnable task, long delay, long period);
+    default void cancelTask(TaskHandle handle) {
+        if (handle != null) handle.cancel();
+    }
+}
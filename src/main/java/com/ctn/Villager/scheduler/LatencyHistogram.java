@@ -0,0 +1,74 @@
+package com.ctn.Villager.scheduler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// 对数线性分桶的延迟直方图（单位纳秒）：每个 2 的幂区间再分 8 个子桶，相对误差不超过 12.5%。
+// 记录只是一次原子自增，不加锁、不分配对象
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // 2^40 纳秒约 18 分钟，更长的值计入最后一个桶
+    private static final int MAX_EXP = 40;
+    private static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        total.increment();
+        sum.add(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) m = max.get();
+    }
+
+    private static int indexOf(long v) {
+        if (v < SUB_COUNT) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        if (exp > MAX_EXP) return BUCKETS - 1;
+        int sub = (int) ((v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    // 桶的中点作为代表值
+    private static long valueOf(int index) {
+        if (index < SUB_COUNT) return index;
+        int exp = (index >>> SUB_BITS) + SUB_BITS - 1;
+        int sub = index & (SUB_COUNT - 1);
+        long lower = (1L << exp) + ((long) sub << (exp - SUB_BITS));
+        return lower + (1L << (exp - SUB_BITS)) / 2;
+    }
+
+    public long percentile(double p) {
+        long n = total.sum();
+        if (n == 0) return 0L;
+        long target = Math.max(1L, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(valueOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    public long getCount() { return total.sum(); }
+    public long getMax() { return max.get(); }
+
+    public long getMean() {
+        long n = total.sum();
+        return n == 0 ? 0L : sum.sum() / n;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0L);
+        total.reset();
+        sum.reset();
+        max.set(0L);
+    }
+}
@@ -0,0 +1,88 @@
+package com.ctn.Villager.scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 任务投递开销基准：对比原先每次投递的 UUID 字符串 + 两处登记/注销，与 TaskHandle 的一次性句柄和登记句柄。
+// 使用独立的 TaskRegistry，不影响调试信息中的任务统计，也不向共享的异步线程池投递任务。
+// 由 /villagerbucket bench scheduler 在异步线程调用
+public final class SchedulerBenchmark {
+
+    private static final int BATCH = 1024;
+
+    private interface Op {
+        void run(int i);
+    }
+
+    private SchedulerBenchmark() {}
+
+    public static List<String> run(long millisPerRun) {
+        ConcurrentHashMap<String, Object> taskMap = new ConcurrentHashMap<>();
+        Set<String> taskIds = ConcurrentHashMap.newKeySet();
+        Object task = new Object();
+        Runnable noop = () -> {};
+
+        Op legacy = i -> {
+            String id = UUID.randomUUID().toString();
+            taskIds.add(id);
+            taskMap.put(id, task);
+            // 任务结束时的注销
+            taskIds.remove(id);
+            taskMap.remove(id);
+        };
+        TaskRegistry tasks = new TaskRegistry();
+        Op oneShot = i -> {
+            TaskHandle h = tasks.open(TaskRegistry.Category.ASYNC, false, noop, 0L);
+            h.bind(noop);
+            h.finish();
+        };
+        Op tracked = i -> {
+            TaskHandle h = tasks.open(TaskRegistry.Category.ASYNC, true, noop, 0L);
+            h.bind(noop);
+            h.finish();
+        };
+
+        List<String> out = new ArrayList<>();
+        out.add("任务投递开销测试: 每项 " + millisPerRun + " ms, 单线程");
+        long[] base = measure(legacy, millisPerRun);
+        out.add(line("UUID 字符串 + 双重登记", base));
+        out.add(line("TaskHandle 一次性", measure(oneShot, millisPerRun)));
+        out.add(line("TaskHandle 登记(延迟/定时)", measure(tracked, millisPerRun)));
+        return out;
+    }
+
+    private static String line(String name, long[] r) {
+        String alloc = r[2] >= 0 ? String.format("%.0f 字节/次", (double) r[2] / r[0]) : "分配未知";
+        return String.format("%s: %.0f ns/次, %s", name, (double) r[1] / r[0], alloc);
+    }
+
+    // 返回 {次数, 耗时纳秒, 分配字节}；不支持线程分配统计时字节为 -1
+    private static long[] measure(Op op, long millis) {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean alloc = mx instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) mx).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) mx : null;
+        long tid = Thread.currentThread().threadId();
+
+        // 预热
+        for (int i = 0; i < BATCH * 16; i++) op.run(i);
+
+        long bytesBefore = alloc != null ? alloc.getThreadAllocatedBytes(tid) : 0L;
+        long start = System.nanoTime();
+        long deadline = start + millis * 1_000_000L;
+        long n = 0;
+        long now;
+        do {
+            for (int i = 0; i < BATCH; i++) op.run(i);
+            n += BATCH;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long bytes = alloc != null ? alloc.getThreadAllocatedBytes(tid) - bytesBefore : -1L;
+        return new long[]{n, now - start, bytes};
+    }
+}
@@ -0,0 +1,73 @@
+package com.ctn.Villager.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 调度延迟统计：按任务类别 × 调用点分别记录排队延迟（投递或到期到开始执行）和执行耗时。
+// 直方图在首次记录时创建，没出现过的组合不占内存
+public final class SchedulerLatency {
+
+    private static final TaskRegistry.Category[] CATEGORIES = TaskRegistry.Category.values();
+    private static final TaskSite[] SITES = TaskSite.values();
+
+    private final AtomicReferenceArray<LatencyHistogram> delay = new AtomicReferenceArray<>(CATEGORIES.length * SITES.length);
+    private final AtomicReferenceArray<LatencyHistogram> run = new AtomicReferenceArray<>(CATEGORIES.length * SITES.length);
+
+    void recordDelay(TaskRegistry.Category category, TaskSite site, long nanos) {
+        histogram(delay, category, site).record(nanos);
+    }
+
+    void recordRun(TaskRegistry.Category category, TaskSite site, long nanos) {
+        histogram(run, category, site).record(nanos);
+    }
+
+    private static LatencyHistogram histogram(AtomicReferenceArray<LatencyHistogram> table,
+                                              TaskRegistry.Category category, TaskSite site) {
+        int slot = category.ordinal() * SITES.length + site.ordinal();
+        LatencyHistogram h = table.get(slot);
+        if (h == null) {
+            table.compareAndSet(slot, null, new LatencyHistogram());
+            h = table.get(slot);
+        }
+        return h;
+    }
+
+    public void reset() {
+        for (int i = 0; i < delay.length(); i++) {
+            LatencyHistogram h = delay.get(i);
+            if (h != null) h.reset();
+            h = run.get(i);
+            if (h != null) h.reset();
+        }
+    }
+
+    // 每个出现过的 类别/调用点 一行；定时任务没有排队延迟
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        for (TaskSite site : SITES) {
+            for (TaskRegistry.Category category : CATEGORIES) {
+                int slot = category.ordinal() * SITES.length + site.ordinal();
+                LatencyHistogram r = run.get(slot);
+                if (r == null || r.getCount() == 0) continue;
+                LatencyHistogram d = delay.get(slot);
+                StringBuilder sb = new StringBuilder()
+                        .append(site.getDisplayName()).append('/').append(category.getDisplayName())
+                        .append(" (").append(r.getCount()).append(" 次)");
+                if (d != null && d.getCount() > 0) sb.append(" 排队 ").append(summary(d));
+                sb.append(" | 执行 ").append(summary(r));
+                lines.add(sb.toString());
+            }
+        }
+        return lines;
+    }
+
+    private static String summary(LatencyHistogram h) {
+        return "p50 " + format(h.percentile(0.50)) + " p99 " + format(h.percentile(0.99)) + " max " + format(h.getMax());
+    }
+
+    private static String format(long nanos) {
+        if (nanos < 1_000_000L) return String.format("%.0fµs", nanos / 1_000.0);
+        return String.format("%.2fms", nanos / 1_000_000.0);
+    }
+}
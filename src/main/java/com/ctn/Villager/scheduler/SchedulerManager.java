@@ -4,16 +4,16 @@ import com.ctn.Villager.VillagerBucketPlugin;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.Plugin;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class SchedulerManager {
     private final Plugin plugin;
     private final IScheduler scheduler;
     private final boolean isFolia;
-    private final Set<Integer> bukkitTaskIds = new HashSet<>();
-    private final Set<String> foliaTaskIds = ConcurrentHashMap.newKeySet();
+    private final TaskRegistry taskRegistry = new TaskRegistry();
+    private final LongAdder inlineHops = new LongAdder();
+    private final LongAdder scheduledHops = new LongAdder();
+    private final LongAdder operations = new LongAdder();
 
     public SchedulerManager(Plugin plugin) {
         this.plugin = plugin;
@@ -46,52 +46,51 @@ public class SchedulerManager {
         return isFolia;
     }
 
-    public void addBukkitTaskId(int taskId) {
-        bukkitTaskIds.add(taskId);
-    }
-
-    public void addFoliaTaskId(String taskId) {
-        foliaTaskIds.add(taskId);
-    }
-
-    public void removeBukkitTaskId(int taskId) {
-        bukkitTaskIds.remove(taskId);
-    }
-
-    public void removeFoliaTaskId(String taskId) {
-        foliaTaskIds.remove(taskId);
+    public TaskRegistry getTaskRegistry() {
+        return taskRegistry;
     }
 
+    // 先取消登记的延迟/定时任务，再让平台调度器清掉本插件剩余的一次性任务
     public void cancelAllTasks() {
-        if (isFolia) {
-            for (String taskId : foliaTaskIds) {
-                try {
-                    scheduler.cancelTask(taskId);
-                } catch (Exception ignored) {}
-            }
-            foliaTaskIds.clear();
-        } else {
-            for (int taskId : bukkitTaskIds) {
-                try {
-                    scheduler.cancelTask(taskId);
-                } catch (Exception ignored) {}
+        taskRegistry.cancelTracked();
+        try {
+            if (isFolia) {
+                Bukkit.getGlobalRegionScheduler().cancelTasks(plugin);
+                Bukkit.getAsyncScheduler().cancelTasks(plugin);
+            } else {
+                Bukkit.getScheduler().cancelTasks(plugin);
             }
-            bukkitTaskIds.clear();
-            Bukkit.getScheduler().cancelTasks(plugin);
-        }
+        } catch (Exception ignored) {}
 
         if (plugin instanceof VillagerBucketPlugin) {
             ((VillagerBucketPlugin) plugin).debug("已取消所有调度任务");
         }
     }
 
-    public int getActiveTaskCount() {
-        return isFolia ? foliaTaskIds.size() : bukkitTaskIds.size();
+    // execute* 每次调用记录一次：内联执行即省下了一次跨 tick 的任务投递
+    public void recordHop(boolean inline) {
+        if (inline) inlineHops.increment();
+        else scheduledHops.increment();
     }
 
-    public void cleanupCompletedTasks() {
-        if (isFolia) {
-            foliaTaskIds.removeIf(id -> false);
-        }
+    // 一次完整的捕获或释放
+    public void recordOperation() {
+        operations.increment();
+    }
+
+    public String describeHops() {
+        long saved = inlineHops.sum();
+        long scheduled = scheduledHops.sum();
+        long ops = operations.sum();
+        return String.format("调度跳转: 内联执行 %d, 投递任务 %d, 操作 %d 次, 平均每次节省 %.2f 次跳转",
+                saved, scheduled, ops, ops == 0 ? 0.0 : (double) saved / ops);
+    }
+
+    public long getActiveTaskCount() {
+        return taskRegistry.getActiveTotal();
+    }
+
+    public long getActiveTaskCount(TaskRegistry.Category category) {
+        return taskRegistry.getActive(category);
     }
-}
\ No newline at end of file
+}
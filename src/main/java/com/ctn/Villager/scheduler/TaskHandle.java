@@ -0,0 +1,76 @@
+package com.ctn.Villager.scheduler;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 调度任务句柄：id 取自递增计数器，取消时直接调用底层任务的 cancel。
+// 任务执行完、被撤销或被取消时结束，结束只会向 TaskRegistry 报告一次
+public final class TaskHandle {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private static final AtomicIntegerFieldUpdater<TaskHandle> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(TaskHandle.class, "state");
+    private static final int PENDING = 0;
+    private static final int DONE = 1;
+
+    private final long id;
+    private final TaskRegistry registry;
+    private final TaskRegistry.Category category;
+    private final boolean tracked;
+    private final TaskSite site;
+    // 预期开始执行的时刻（投递时刻加延迟），排队延迟从这里算起
+    private final long dueNanos;
+    private volatile Runnable canceller;
+    private volatile boolean cancelled;
+    private volatile int state;
+
+    TaskHandle(TaskRegistry registry, TaskRegistry.Category category, boolean tracked, TaskSite site, long dueNanos) {
+        this.id = NEXT_ID.incrementAndGet();
+        this.registry = registry;
+        this.category = category;
+        this.tracked = tracked;
+        this.site = site;
+        this.dueNanos = dueNanos;
+    }
+
+    // 底层任务创建后绑定；绑定前已被取消的任务立即取消
+    void bind(Runnable canceller) {
+        this.canceller = canceller;
+        if (cancelled) canceller.run();
+    }
+
+    // 任务开始执行时调用，返回开始时刻；定时任务每次都会执行，只统计执行耗时
+    long beginRun() {
+        long now = System.nanoTime();
+        if (category != TaskRegistry.Category.TIMER) registry.getLatency().recordDelay(category, site, now - dueNanos);
+        return now;
+    }
+
+    void endRun(long startNanos) {
+        registry.getLatency().recordRun(category, site, System.nanoTime() - startNanos);
+    }
+
+    // 任务执行完或被实体调度器撤销时调用
+    void finish() {
+        if (STATE.compareAndSet(this, PENDING, DONE)) registry.close(this, cancelled);
+    }
+
+    public void cancel() {
+        if (cancelled) return;
+        cancelled = true;
+        Runnable c = canceller;
+        if (c != null) {
+            try {
+                c.run();
+            } catch (Exception ignored) {}
+        }
+        finish();
+    }
+
+    public long getId() { return id; }
+    public TaskRegistry.Category getCategory() { return category; }
+    public TaskSite getSite() { return site; }
+    public boolean isCancelled() { return cancelled; }
+    public boolean isDone() { return state == DONE; }
+    public boolean isTracked() { return tracked; }
+}
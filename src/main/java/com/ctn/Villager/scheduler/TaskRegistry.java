@@ -0,0 +1,116 @@
+package com.ctn.Villager.scheduler;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+// 任务生命周期登记：按类别统计进行中的任务数，每个任务在执行完、被撤销或被取消时恰好结束一次。
+// 只有延迟任务和定时任务的句柄会被保存（用于停用时取消），结束即移除，占用的内存只与待执行任务数有关
+public final class TaskRegistry {
+
+    public enum Category {
+        GLOBAL("全局"), REGION("区域"), ENTITY("实体"), ASYNC("异步"), TIMER("定时");
+
+        private final String displayName;
+
+        Category(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() { return displayName; }
+    }
+
+    public interface CompletionListener {
+        void onComplete(Category category, boolean cancelled);
+    }
+
+    private static final Category[] CATEGORIES = Category.values();
+
+    private final LongAdder[] active = new LongAdder[CATEGORIES.length];
+    private final LongAdder[] submitted = new LongAdder[CATEGORIES.length];
+    private final LongAdder cancelled = new LongAdder();
+    private final Set<TaskHandle> tracked = ConcurrentHashMap.newKeySet();
+    private final List<CompletionListener> listeners = new CopyOnWriteArrayList<>();
+    private final SchedulerLatency latency = new SchedulerLatency();
+
+    public TaskRegistry() {
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            active[i] = new LongAdder();
+            submitted[i] = new LongAdder();
+        }
+    }
+
+    // 一次性任务只计数；tracked 为 true 时同时保存句柄，便于停用插件时取消。
+    // 调用点取自 TaskSite 标签，delayTicks 用于计算预期开始时刻
+    TaskHandle open(Category category, boolean track, Runnable task, long delayTicks) {
+        long due = System.nanoTime() + Math.max(0L, delayTicks) * 50_000_000L;
+        TaskHandle handle = new TaskHandle(this, category, track, TaskSite.of(task), due);
+        active[category.ordinal()].increment();
+        submitted[category.ordinal()].increment();
+        if (track) tracked.add(handle);
+        return handle;
+    }
+
+    // 由 TaskHandle 保证每个句柄只调用一次
+    void close(TaskHandle handle, boolean wasCancelled) {
+        Category category = handle.getCategory();
+        active[category.ordinal()].decrement();
+        if (wasCancelled) cancelled.increment();
+        if (handle.isTracked()) tracked.remove(handle);
+        for (CompletionListener listener : listeners) {
+            try {
+                listener.onComplete(category, wasCancelled);
+            } catch (Exception ignored) {}
+        }
+    }
+
+    public void addCompletionListener(CompletionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeCompletionListener(CompletionListener listener) {
+        listeners.remove(listener);
+    }
+
+    public SchedulerLatency getLatency() {
+        return latency;
+    }
+
+    public void cancelTracked() {
+        for (TaskHandle handle : tracked.toArray(new TaskHandle[0])) {
+            try {
+                handle.cancel();
+            } catch (Exception ignored) {}
+        }
+    }
+
+    public long getActive(Category category) {
+        return Math.max(0L, active[category.ordinal()].sum());
+    }
+
+    public long getActiveTotal() {
+        long n = 0;
+        for (Category c : CATEGORIES) n += getActive(c);
+        return n;
+    }
+
+    public long getSubmitted(Category category) {
+        return submitted[category.ordinal()].sum();
+    }
+
+    public int getTrackedCount() {
+        return tracked.size();
+    }
+
+    public String describe() {
+        StringBuilder sb = new StringBuilder("调度任务: 进行中 ").append(getActiveTotal()).append(" (");
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(CATEGORIES[i].getDisplayName()).append(' ').append(getActive(CATEGORIES[i]))
+                    .append('/').append(getSubmitted(CATEGORIES[i]));
+        }
+        return sb.append("), 已登记句柄 ").append(tracked.size()).append(", 已取消 ").append(cancelled.sum()).toString();
+    }
+}
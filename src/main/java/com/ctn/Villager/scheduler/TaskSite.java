@@ -0,0 +1,41 @@
+package com.ctn.Villager.scheduler;
+
+// 任务的调用点标签：用 TaskSite.CAPTURE.tag(task) 包装后投递，调度器据此分别统计延迟。
+// 未包装的任务归入 OTHER
+public enum TaskSite {
+    CAPTURE("捕获"),
+    RELEASE("释放"),
+    SNAPSHOT("快照"),
+    OTHER("其他");
+
+    private final String displayName;
+
+    TaskSite(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() { return displayName; }
+
+    public Runnable tag(Runnable task) {
+        return new Tagged(this, task);
+    }
+
+    public static TaskSite of(Runnable task) {
+        return task instanceof Tagged tagged ? tagged.site : OTHER;
+    }
+
+    private static final class Tagged implements Runnable {
+        private final TaskSite site;
+        private final Runnable task;
+
+        Tagged(TaskSite site, Runnable task) {
+            this.site = site;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
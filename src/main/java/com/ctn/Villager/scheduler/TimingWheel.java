@@ -0,0 +1,208 @@
+package com.ctn.Villager.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// 分层时间轮：登记时按截止时间放进对应层的槽位，每推进一格只处理当前槽位，
+// 到期和取消都是 O(1)，不再需要定期全表扫描。
+// 4 层、每层 64 槽，以 50ms 为一格时可覆盖约 9 天，更远的截止时间先放在最高层，逐层下放
+public final class TimingWheel {
+
+    private static final int WHEEL_BITS = 6;
+    private static final int SLOTS = 1 << WHEEL_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN = 1L << (WHEEL_BITS * LEVELS);
+
+    public static final class Timeout {
+        private final Runnable task;
+        private long deadlineTick;
+        private Timeout prev;
+        private Timeout next;
+        private Bucket bucket;
+        private final TimingWheel wheel;
+
+        private Timeout(TimingWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        // 取消后回调不会再执行；已经到期执行过的取消无效果
+        public void cancel() {
+            wheel.cancel(this);
+        }
+    }
+
+    private static final class Bucket {
+        private Timeout head;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            t.prev = null;
+            t.next = head;
+            if (head != null) head.prev = t;
+            head = t;
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null) t.prev.next = t.next;
+            else head = t.next;
+            if (t.next != null) t.next.prev = t.prev;
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+
+        Timeout drain() {
+            Timeout h = head;
+            head = null;
+            return h;
+        }
+    }
+
+    private final long tickMillis;
+    private final LongSupplier clock;
+    private final long startMillis;
+    private final Bucket[][] wheels = new Bucket[LEVELS][SLOTS];
+    private final ReentrantLock lock = new ReentrantLock();
+    private long currentTick;
+    private int pending;
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+
+    public TimingWheel(long tickMillis) {
+        this(tickMillis, System::currentTimeMillis);
+    }
+
+    public TimingWheel(long tickMillis, LongSupplier clock) {
+        this.tickMillis = Math.max(1, tickMillis);
+        this.clock = clock;
+        this.startMillis = clock.getAsLong();
+        for (int l = 0; l < LEVELS; l++) {
+            for (int s = 0; s < SLOTS; s++) wheels[l][s] = new Bucket();
+        }
+    }
+
+    public Timeout schedule(long delayMillis, Runnable task) {
+        Timeout t = new Timeout(this, task);
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        lock.lock();
+        try {
+            t.deadlineTick = currentTick + ticks;
+            place(t);
+            pending++;
+        } finally {
+            lock.unlock();
+        }
+        scheduled.increment();
+        return t;
+    }
+
+    private void cancel(Timeout t) {
+        lock.lock();
+        try {
+            if (t.bucket == null) return;
+            t.bucket.remove(t);
+            pending--;
+        } finally {
+            lock.unlock();
+        }
+        cancelled.increment();
+    }
+
+    // 调用方须持有锁；截止时间已过的返回 false，由调用方直接执行
+    private boolean place(Timeout t) {
+        long delta = t.deadlineTick - currentTick;
+        if (delta <= 0) return false;
+        long target = delta < MAX_SPAN ? t.deadlineTick : currentTick + MAX_SPAN - 1;
+        long span = Math.min(delta, MAX_SPAN - 1);
+        int level = 0;
+        while (level < LEVELS - 1 && span >= (1L << (WHEEL_BITS * (level + 1)))) level++;
+        wheels[level][(int) ((target >>> (WHEEL_BITS * level)) & MASK)].add(t);
+        return true;
+    }
+
+    // 推进到当前时间，到期回调在锁外、在调用线程上执行
+    public void advance() {
+        long targetTick = (clock.getAsLong() - startMillis) / tickMillis;
+        List<Timeout> due = null;
+        lock.lock();
+        try {
+            while (currentTick < targetTick) {
+                currentTick++;
+                // 先把高层到点的槽位下放，再处理最底层的当前槽位
+                for (int level = LEVELS - 1; level >= 1; level--) {
+                    if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) continue;
+                    Bucket b = wheels[level][(int) ((currentTick >>> (WHEEL_BITS * level)) & MASK)];
+                    due = cascade(b.drain(), due);
+                }
+                due = cascade(wheels[0][(int) (currentTick & MASK)].drain(), due);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (due == null) return;
+        for (Timeout t : due) {
+            try {
+                t.task.run();
+            } catch (Throwable ignored) {
+            }
+        }
+        expired.add(due.size());
+    }
+
+    private List<Timeout> cascade(Timeout t, List<Timeout> due) {
+        while (t != null) {
+            Timeout next = t.next;
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+            if (!place(t)) {
+                if (due == null) due = new ArrayList<>();
+                due.add(t);
+                pending--;
+            }
+            t = next;
+        }
+        return due;
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            for (Bucket[] wheel : wheels) {
+                for (Bucket b : wheel) {
+                    Timeout t = b.drain();
+                    while (t != null) {
+                        Timeout next = t.next;
+                        t.prev = null;
+                        t.next = null;
+                        t.bucket = null;
+                        t = next;
+                    }
+                }
+            }
+            pending = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPending() {
+        lock.lock();
+        try {
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String describe() {
+        return "过期时间轮: 待到期 " + getPending() + ", 已登记 " + scheduled.sum() + ", 已到期 " + expired.sum() + ", 已取消 " + cancelled.sum();
+    }
+}